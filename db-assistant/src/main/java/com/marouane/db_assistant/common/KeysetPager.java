@@ -0,0 +1,57 @@
+package com.marouane.db_assistant.common;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Builds a {@link PageResponse} over a list ordered by (time, id). The caller supplies the three queries:
+ * the latest rows and the rows before a cursor, both newest first, and the rows after a cursor, oldest first.
+ */
+@Component
+public class KeysetPager {
+
+    @Value("${application.pagination.default-page-size}")
+    private int defaultPageSize;
+
+    @Value("${application.pagination.max-page-size}")
+    private int maxPageSize;
+
+    public <T> PageResponse<T> page(String before, String after, Integer size, boolean oldestFirst,
+                                    Function<Limit, List<T>> latest,
+                                    BiFunction<KeysetCursor, Limit, List<T>> olderThan,
+                                    BiFunction<KeysetCursor, Limit, List<T>> newerThan,
+                                    Function<T, KeysetCursor> cursorOf) {
+        int pageSize = Math.clamp(size != null ? size : defaultPageSize, 1, maxPageSize);
+        // one extra row tells whether there is a next page
+        Limit limit = Limit.of(pageSize + 1);
+
+        List<T> rows;
+        if (after != null) {
+            rows = newerThan.apply(KeysetCursor.decode(after), limit);
+        } else if (before != null) {
+            rows = olderThan.apply(KeysetCursor.decode(before), limit);
+        } else {
+            rows = latest.apply(limit);
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<T> items = new ArrayList<>(rows.subList(0, Math.min(rows.size(), pageSize)));
+        // only the rows after a cursor come oldest first
+        if ((after == null) == oldestFirst) {
+            Collections.reverse(items);
+        }
+        if (items.isEmpty()) {
+            return new PageResponse<>(items, null, null, hasMore);
+        }
+        T oldest = oldestFirst ? items.getFirst() : items.getLast();
+        T newest = oldestFirst ? items.getLast() : items.getFirst();
+        return new PageResponse<>(items, cursorOf.apply(oldest).encode(), cursorOf.apply(newest).encode(), hasMore);
+    }
+}
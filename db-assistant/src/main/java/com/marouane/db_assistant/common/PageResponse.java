@@ -0,0 +1,23 @@
+package com.marouane.db_assistant.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list. {@code before} fetches the rows older than this page,
+ * {@code after} the rows newer than it; {@code hasMore} tells whether the requested direction has more.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PageResponse<T> {
+    private List<T> items;
+    private String before;
+    private String after;
+    private boolean hasMore;
+}
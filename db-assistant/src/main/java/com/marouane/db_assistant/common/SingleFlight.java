@@ -0,0 +1,55 @@
+package com.marouane.db_assistant.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the computation, callers that
+ * arrive while it is in flight wait for it and get the same result (or the same exception).
+ * Nothing is cached, the key is free again as soon as the computation finished.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface Computation<V, E extends Exception> {
+        V compute() throws E;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> V run(K key, Computation<V, E> computation) throws E {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an identical request", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                // the computation only throws E besides unchecked exceptions
+                throw (E) cause;
+            }
+        }
+
+        try {
+            V value = computation.compute();
+            mine.complete(value);
+            return value;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.marouane.db_assistant.database;
+
+public record ColumnInfo(
+        String name,
+        String type,
+        boolean nullable
+) {
+}
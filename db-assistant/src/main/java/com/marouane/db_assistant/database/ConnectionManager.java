@@ -1,16 +1,21 @@
 package com.marouane.db_assistant.database;
 
 import com.marouane.db_assistant.exception.DatabaseConnectionException;
+import com.marouane.db_assistant.message.ChatMessageRepository;
+import com.marouane.db_assistant.persistence.WriteBehindPersister;
+import com.marouane.db_assistant.sql.QueryHistoryDailyRepository;
+import com.marouane.db_assistant.sql.QueryHistoryRepository;
 import com.marouane.db_assistant.user.User;
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +27,14 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ConnectionManager {
     private final Map<Integer, ActiveConnection> activeConnections = new ConcurrentHashMap<>();
     private final ConnexionRepository connectionRepo;
+    private final DataSourceRegistry dataSourceRegistry;
+    private final QueryHistoryDailyRepository queryHistoryDailyRepository;
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final ChatMessageRepository chatMessageRepository;
+    private final WriteBehindPersister writeBehindPersister;
+
+    @Value("${application.persistence.delete-chunk-size}")
+    private int deleteChunkSize;
 
     //Activate a connexion for a user
     public void activateConnection(Authentication connectedUser, Integer connectionId) {
@@ -30,30 +43,10 @@ public class ConnectionManager {
         DatabaseConnection conn = connectionRepo
                 .findByIdAndUser(connectionId, user)
                 .orElseThrow(() -> new SecurityException("Connection not found"));
-        DataSource ds = createDatasource(conn);
-        activeConnections.put(user.getId(), new ActiveConnection(conn, ds));
-    }
-
-    //creates a pooled Datasource
-    private DataSource createDatasource(DatabaseConnection conn) {
-        // create hikari config
-
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(conn.getJdbcUrl());
-        config.setUsername(conn.getUsername());
-        config.setPassword(conn.getPassword());
-
-        //test connection
-        try(HikariDataSource testDs = new HikariDataSource(config);
-            Connection testConn = testDs.getConnection()) {
-            if (!testConn.isValid(2)) {
-                throw new DatabaseConnectionException("Connection invalid");
-            }
-
-            return new HikariDataSource(config);
-
-        }catch (SQLException e) {
-            throw new DatabaseConnectionException("Connection test failed: " + e.getMessage());
+        DataSource ds = dataSourceRegistry.acquire(conn);
+        ActiveConnection previous = activeConnections.put(user.getId(), new ActiveConnection(conn, ds));
+        if (previous != null) {
+            dataSourceRegistry.release(previous.connection());
         }
     }
 
@@ -72,8 +65,8 @@ public class ConnectionManager {
 
     public void cleanupUserConnection(Integer userId) {
         ActiveConnection  activeConn  = activeConnections.remove(userId);
-        if (activeConn != null && activeConn.dataSource() instanceof HikariDataSource hikari) {
-            hikari.close();
+        if (activeConn != null) {
+            dataSourceRegistry.release(activeConn.connection());
         }
     }
 
@@ -85,14 +78,11 @@ public class ConnectionManager {
     }
 
     public boolean testConnection(DbConnectionRequest request) {
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(String.format("jdbc:%s://%s:%d/%s",
-                request.getDbType(), request.getHost(), request.getPort(), request.getDatabase()));
-        config.setUsername(request.getUsername());
-        config.setPassword(request.getPassword());
+        String jdbcUrl = String.format("jdbc:%s://%s:%d/%s",
+                request.getDbType(), request.getHost(), request.getPort(), request.getDatabase());
 
-        try (HikariDataSource ds = new HikariDataSource(config);
-             Connection conn = ds.getConnection()) {
+        // a single physical connection is enough, no pool needed for a one-off check
+        try (Connection conn = DriverManager.getConnection(jdbcUrl, request.getUsername(), request.getPassword())) {
 
             return conn.isValid(2); // returns true if connection is valid
 
@@ -110,16 +100,34 @@ public class ConnectionManager {
 
         // Remove from active connections if currently active
         ActiveConnection activeConn = activeConnections.get(user.getId());
-        if (activeConn != null && activeConn.connection().getId().equals(connectionId)) {
-            // Close the HikariDataSource if active
-            if (activeConn.dataSource() instanceof HikariDataSource hikari) {
-                hikari.close();
-            }
-            activeConnections.remove(user.getId());
+        if (activeConn != null && activeConn.connection().getId().equals(connectionId)
+                && activeConnections.remove(user.getId(), activeConn)) {
+            // Give the shared pool back, it is closed once no one uses it anymore
+            dataSourceRegistry.release(activeConn.connection());
         }
 
+        // Dependent rows go first with set-based deletes, anything still queued for them is dropped
+        writeBehindPersister.discard(null, connectionId);
+        deleteDependentRows(conn);
+
         // Delete from repository
-        connectionRepo.delete(conn);
+        try {
+            connectionRepo.delete(conn);
+        } catch (DataIntegrityViolationException e) {
+            // a batch the write-behind worker was writing landed after the deletes above
+            deleteDependentRows(conn);
+            connectionRepo.delete(conn);
+        }
+    }
+
+    private void deleteDependentRows(DatabaseConnection conn) {
+        while (chatMessageRepository.deleteChunkByConnection(conn.getId(), deleteChunkSize) > 0) {
+            // next chunk
+        }
+        while (queryHistoryRepository.deleteChunkByConnection(conn.getId(), deleteChunkSize) > 0) {
+            // next chunk
+        }
+        queryHistoryDailyRepository.deleteByConnection(conn);
     }
 
 
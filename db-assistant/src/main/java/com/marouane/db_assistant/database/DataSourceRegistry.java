@@ -0,0 +1,223 @@
+package com.marouane.db_assistant.database;
+
+import com.marouane.db_assistant.exception.DatabaseConnectionException;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shared Hikari pools for the target databases, keyed by (jdbcUrl, username, credential hash).
+ * Every active connection holds one reference on its pool; a pool nobody references any more
+ * is closed once it stayed unused for the idle TTL.
+ * Pool metrics (hikaricp.connections.*) are published through Micrometer, tagged with the pool name.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DataSourceRegistry {
+    private final Map<PoolKey, SharedPool> pools = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    @Value("${application.datasource.pool.idle-ttl}")
+    private long idleTtl;
+
+    @Value("${application.datasource.pool.min-idle}")
+    private int defaultMinIdle;
+
+    @Value("${application.datasource.pool.max-size}")
+    private int defaultMaxPoolSize;
+
+    @Value("${application.datasource.pool.connection-timeout}")
+    private long defaultConnectionTimeout;
+
+    @Value("${application.datasource.pool.leak-detection-threshold}")
+    private long defaultLeakDetectionThreshold;
+
+    @Value("${application.datasource.statement-cache.size}")
+    private int defaultStatementCacheSize;
+
+    private static final class SharedPool {
+        private final HikariDataSource dataSource;
+        private int references;
+        private long unusedSince;
+        private final AtomicBoolean warmedUp = new AtomicBoolean();
+
+        private SharedPool(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * Takes a reference on the pool for this connection, creating it if needed, and checks that
+     * the database is reachable with a connection borrowed from that same pool.
+     */
+    public HikariDataSource acquire(DatabaseConnection conn) {
+        PoolKey key = PoolKey.of(conn);
+        SharedPool pool = pools.compute(key, (k, existing) -> {
+            SharedPool shared = existing != null ? existing : new SharedPool(createDataSource(conn));
+            shared.references++;
+            return shared;
+        });
+
+        //test connection
+        try (Connection testConn = pool.dataSource.getConnection()) {
+            if (!testConn.isValid(2)) {
+                throw new DatabaseConnectionException("Connection invalid");
+            }
+        } catch (SQLException | RuntimeException e) {
+            release(key, true);
+            if (e instanceof DatabaseConnectionException dce) {
+                throw dce;
+            }
+            throw new DatabaseConnectionException("Connection test failed: " + e.getMessage());
+        }
+
+        // only the first caller warms the pool up, concurrent activations go on
+        if (pool.warmedUp.compareAndSet(false, true)) {
+            warmUp(pool);
+        }
+        return pool.dataSource;
+    }
+
+    /**
+     * Opens minIdle connections right away so the first queries do not pay for connection setup.
+     */
+    private void warmUp(SharedPool pool) {
+        int minIdle = pool.dataSource.getMinimumIdle();
+        List<Connection> borrowed = new ArrayList<>(minIdle);
+        try {
+            for (int i = 0; i < minIdle; i++) {
+                borrowed.add(pool.dataSource.getConnection());
+            }
+        } catch (SQLException e) {
+            log.warn("Could not warm up pool {}: {}", pool.dataSource.getPoolName(), e.getMessage());
+        } finally {
+            for (Connection connection : borrowed) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // returned to the pool or evicted by it, either way nothing to do
+                }
+            }
+        }
+    }
+
+    public PoolStatsDto stats(DataSource dataSource) {
+        HikariDataSource hikari = (HikariDataSource) dataSource;
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null) {
+            return new PoolStatsDto(hikari.getPoolName(), 0, 0, 0, 0, hikari.getMaximumPoolSize());
+        }
+        return new PoolStatsDto(
+                hikari.getPoolName(),
+                pool.getActiveConnections(),
+                pool.getIdleConnections(),
+                pool.getThreadsAwaitingConnection(),
+                pool.getTotalConnections(),
+                hikari.getMaximumPoolSize()
+        );
+    }
+
+    public void release(DatabaseConnection conn) {
+        release(PoolKey.of(conn), false);
+    }
+
+    private void release(PoolKey key, boolean closeIfUnused) {
+        List<HikariDataSource> toClose = new ArrayList<>(1);
+        pools.computeIfPresent(key, (k, pool) -> {
+            pool.references--;
+            if (pool.references > 0) {
+                return pool;
+            }
+            if (closeIfUnused) {
+                toClose.add(pool.dataSource);
+                return null;
+            }
+            pool.unusedSince = System.currentTimeMillis();
+            return pool;
+        });
+        toClose.forEach(HikariDataSource::close);
+    }
+
+    @Scheduled(fixedDelayString = "${application.datasource.pool.eviction-interval}")
+    public void closeIdlePools() {
+        long now = System.currentTimeMillis();
+        List<HikariDataSource> toClose = new ArrayList<>();
+        for (PoolKey key : pools.keySet()) {
+            pools.computeIfPresent(key, (k, pool) -> {
+                if (pool.references == 0 && now - pool.unusedSince > idleTtl) {
+                    toClose.add(pool.dataSource);
+                    return null;
+                }
+                return pool;
+            });
+        }
+        toClose.forEach(dataSource -> {
+            log.info("Closing idle pool {}", dataSource.getPoolName());
+            dataSource.close();
+        });
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        pools.values().forEach(pool -> pool.dataSource.close());
+        pools.clear();
+    }
+
+    // The pool is started lazily by its first getConnection, outside of the map update
+    private HikariDataSource createDataSource(DatabaseConnection conn) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("target-" + conn.getDbType() + "-" + conn.getHost() + "-" + conn.getDatabase()
+                + "-" + Integer.toHexString(PoolKey.of(conn).hashCode()));
+        config.setJdbcUrl(conn.getJdbcUrl());
+        config.setUsername(conn.getUsername());
+        config.setPassword(conn.getPassword());
+        config.setMinimumIdle(valueOrDefault(conn.getMinIdle(), defaultMinIdle));
+        config.setMaximumPoolSize(valueOrDefault(conn.getMaxPoolSize(), defaultMaxPoolSize));
+        config.setConnectionTimeout(valueOrDefault(conn.getConnectionTimeoutMs(), defaultConnectionTimeout));
+        config.setLeakDetectionThreshold(valueOrDefault(conn.getLeakDetectionThresholdMs(), defaultLeakDetectionThreshold));
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        configureStatementCache(config, conn.getDbType(),
+                valueOrDefault(conn.getPreparedStatementCacheSize(), defaultStatementCacheSize));
+
+        HikariDataSource dataSource = new HikariDataSource();
+        config.copyStateTo(dataSource);
+        return dataSource;
+    }
+
+    //prepared statements cached per pooled connection, keyed by the SQL text. The drivers keep their
+    //default of when to prepare on the server: ad-hoc SQL runs through plain statements anyway
+    private void configureStatementCache(HikariConfig config, String dbType, int statementCacheSize) {
+        switch (dbType.toLowerCase()) {
+            case "postgresql" -> config.addDataSourceProperty("preparedStatementCacheQueries", statementCacheSize);
+            case "mysql" -> {
+                config.addDataSourceProperty("cachePrepStmts", true);
+                config.addDataSourceProperty("prepStmtCacheSize", statementCacheSize);
+                config.addDataSourceProperty("prepStmtCacheSqlLimit", 4096);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static <T> T valueOrDefault(T value, T defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+}
@@ -30,14 +30,24 @@ public class DatabaseConnection {
     private String username;
     private String password;
 
-    @OneToMany(mappedBy = "connection", cascade = CascadeType.ALL, orphanRemoval = true)
+    private Integer queryTimeoutSeconds; // null = application default
+
+    // Pool settings, null = application default. The first connection that opens a shared pool sizes it
+    private Integer minIdle;
+    private Integer maxPoolSize;
+    private Long connectionTimeoutMs;
+    private Long leakDetectionThresholdMs;
+    private Integer preparedStatementCacheSize;
+
+    // No JPA cascade: history and messages are removed with bulk deletes, see ConnectionManager.deleteConnection
+    @OneToMany(mappedBy = "connection")
     @JsonIgnore
     private List<QueryHistory> queryHistory = new ArrayList<>();
 
     @ManyToOne
     private User user;
 
-    @OneToMany(mappedBy = "connection", cascade = CascadeType.REMOVE)
+    @OneToMany(mappedBy = "connection")
     private List<ChatMessage> messages;
 
 
@@ -1,6 +1,8 @@
 package com.marouane.db_assistant.database;
 
 import com.marouane.db_assistant.exception.DatabaseConnectionException;
+import com.marouane.db_assistant.rag.SchemaRetrievalService;
+import com.marouane.db_assistant.sql.SqlGenerationCache;
 import com.marouane.db_assistant.user.User;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -26,6 +28,9 @@ public class DbConnectionController {
     private final ConnexionRepository connectionRepo;
     private final DbConnectionMapper mapper;
     private final SchemaService schemaService;
+    private final DataSourceRegistry dataSourceRegistry;
+    private final SchemaRetrievalService schemaRetrievalService;
+    private final SqlGenerationCache sqlGenerationCache;
 
     @PostMapping(produces = "application/json")
     @Operation(
@@ -45,7 +50,10 @@ public class DbConnectionController {
                           "port": 5432,
                           "database": "db-assistant",
                           "username": "user",
-                          "password": "password"
+                          "password": "password",
+                          "queryTimeoutSeconds": 300,
+                          "minIdle": 2,
+                          "maxPoolSize": 10
                         }
                         """
                             )
@@ -73,6 +81,12 @@ public class DbConnectionController {
                     .database(request.getDatabase())
                     .username(request.getUsername())
                     .password(request.getPassword())
+                    .queryTimeoutSeconds(request.getQueryTimeoutSeconds())
+                    .minIdle(request.getMinIdle())
+                    .maxPoolSize(request.getMaxPoolSize())
+                    .connectionTimeoutMs(request.getConnectionTimeoutMs())
+                    .leakDetectionThresholdMs(request.getLeakDetectionThresholdMs())
+                    .preparedStatementCacheSize(request.getPreparedStatementCacheSize())
                     .build();
             connectionRepo.save(conn);
 
@@ -81,6 +95,7 @@ public class DbConnectionController {
                     connectedUser,
                     conn.getId()
             );
+            prepareSchema(connectedUser);
             DbConnectionResponse response = mapper.toDto(conn);
             return ResponseEntity.ok(response);
 
@@ -113,6 +128,7 @@ public class DbConnectionController {
     ) {
         try {
             connectionManager.activateConnection(connectedUser, id);
+            prepareSchema(connectedUser);
             User user = (User) connectedUser.getPrincipal();
             DatabaseConnection active = connectionManager.getActiveConnection(user.getId());
             DbConnectionResponse response = mapper.toDto(active);
@@ -166,6 +182,9 @@ public class DbConnectionController {
     ) {
         try {
             connectionManager.deleteConnection(connectedUser, id);
+            schemaService.invalidate(id);
+            schemaRetrievalService.invalidate(id);
+            sqlGenerationCache.invalidate(id);
             return ResponseEntity.ok(Map.of("message", "Connection deleted successfully"));
         } catch (SecurityException e) {
             return ResponseEntity.badRequest().body(Map.of("message", "Failed to delete connection"));
@@ -188,6 +207,21 @@ public class DbConnectionController {
         }
     }
 
+    @GetMapping(value = "/pool", produces = "application/json")
+    @Operation(
+            summary = "Get the connection pool statistics",
+            description = "Returns the current active, idle and pending connection counts of the pool behind the active database connection."
+    )
+    public ResponseEntity<PoolStatsDto> getPoolStats(Authentication auth) {
+        try {
+            User user = (User) auth.getPrincipal();
+            DataSource ds = connectionManager.getActiveDataSource(user.getId());
+            return ResponseEntity.ok(dataSourceRegistry.stats(ds));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.ok().build();
+        }
+    }
+
     @GetMapping(value = "/schema", produces = "application/json")
     @Operation(
             summary = "Get the database schema",
@@ -196,17 +230,44 @@ public class DbConnectionController {
     public ResponseEntity<SchemaResponseDto> getSchema(Authentication auth) {
         User user = (User) auth.getPrincipal();
         DataSource ds = connectionManager.getActiveDataSource(user.getId());
-        String schema = schemaService.extractSchemaInfo(ds);
+        DatabaseConnection active = connectionManager.getActiveConnection(user.getId());
+        String schema = schemaService.extractSchemaInfo(active, ds);
 
         return ResponseEntity.ok(new SchemaResponseDto(schema));
     }
 
+    @GetMapping(value = "/schema/model", produces = "application/json")
+    @Operation(
+            summary = "Get the structured database schema",
+            description = "Retrieves the cached tables, columns, primary keys and foreign keys of the currently active database connection."
+    )
+    public ResponseEntity<SchemaModel> getSchemaModel(Authentication auth) {
+        User user = (User) auth.getPrincipal();
+        DataSource ds = connectionManager.getActiveDataSource(user.getId());
+        DatabaseConnection active = connectionManager.getActiveConnection(user.getId());
 
+        return ResponseEntity.ok(schemaService.getSchema(active, ds));
+    }
 
+    @PostMapping(value = "/schema/refresh", produces = "application/json")
+    @Operation(
+            summary = "Refresh the database schema",
+            description = "Reloads the schema of the currently active database connection, e.g. after tables were created or altered."
+    )
+    public ResponseEntity<SchemaResponseDto> refreshSchema(Authentication auth) {
+        User user = (User) auth.getPrincipal();
+        DataSource ds = connectionManager.getActiveDataSource(user.getId());
+        DatabaseConnection active = connectionManager.getActiveConnection(user.getId());
+        String schema = schemaService.refresh(active, ds).getPromptText();
 
+        return ResponseEntity.ok(new SchemaResponseDto(schema));
+    }
 
-
-
-
-
+    // the first question should not have to wait for the schema to be embedded
+    private void prepareSchema(Authentication connectedUser) {
+        User user = (User) connectedUser.getPrincipal();
+        schemaRetrievalService.prepare(
+                connectionManager.getActiveConnection(user.getId()),
+                connectionManager.getActiveDataSource(user.getId()));
+    }
 }
@@ -16,6 +16,12 @@ public class DbConnectionMapper {
         response.setDbType(connection.getDbType());
         response.setDatabase(connection.getDatabase());
         response.setUsername(connection.getUsername());
+        response.setQueryTimeoutSeconds(connection.getQueryTimeoutSeconds());
+        response.setMinIdle(connection.getMinIdle());
+        response.setMaxPoolSize(connection.getMaxPoolSize());
+        response.setConnectionTimeoutMs(connection.getConnectionTimeoutMs());
+        response.setLeakDetectionThresholdMs(connection.getLeakDetectionThresholdMs());
+        response.setPreparedStatementCacheSize(connection.getPreparedStatementCacheSize());
         return response;
     }
 
@@ -13,4 +13,10 @@ public class DbConnectionRequest {
     private String database;
     private String username;
     private String password;
+    private Integer queryTimeoutSeconds;
+    private Integer minIdle;
+    private Integer maxPoolSize;
+    private Long connectionTimeoutMs;
+    private Long leakDetectionThresholdMs;
+    private Integer preparedStatementCacheSize;
 }
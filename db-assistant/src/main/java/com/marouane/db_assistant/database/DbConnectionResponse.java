@@ -17,4 +17,10 @@ public class DbConnectionResponse {
     int port;
     String database;
     String username;
+    Integer queryTimeoutSeconds;
+    Integer minIdle;
+    Integer maxPoolSize;
+    Long connectionTimeoutMs;
+    Long leakDetectionThresholdMs;
+    Integer preparedStatementCacheSize;
 }
@@ -0,0 +1,12 @@
+package com.marouane.db_assistant.database;
+
+public record ForeignKeyInfo(
+        String column,
+        String referencedSchema,
+        String referencedTable,
+        String referencedColumn
+) {
+    public String referencedQualifiedName() {
+        return referencedSchema != null ? referencedSchema + "." + referencedTable : referencedTable;
+    }
+}
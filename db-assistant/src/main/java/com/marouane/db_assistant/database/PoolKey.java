@@ -0,0 +1,31 @@
+package com.marouane.db_assistant.database;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Identifies a target database pool. Connections pointing at the same database with the same
+ * credentials share one pool; the password only takes part as a hash.
+ * Also identifies the target when work is shared between users of the same database.
+ */
+public record PoolKey(
+        String jdbcUrl,
+        String username,
+        String credentialHash
+) {
+    public static PoolKey of(DatabaseConnection conn) {
+        return new PoolKey(conn.getJdbcUrl(), conn.getUsername(), sha256(conn.getPassword()));
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((value != null ? value : "").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.marouane.db_assistant.database;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PoolStatsDto {
+    private String poolName;
+    private int activeConnections;
+    private int idleConnections;
+    private int pendingThreads; // threads waiting for a connection
+    private int totalConnections;
+    private int maxPoolSize;
+}
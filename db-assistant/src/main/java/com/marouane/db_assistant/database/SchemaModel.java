@@ -0,0 +1,55 @@
+package com.marouane.db_assistant.database;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Structured schema of a target database as cached by {@link SchemaService}.
+ * The prompt text and the fingerprint are computed once when the model is built.
+ */
+@Getter
+public class SchemaModel {
+    private final Integer connectionId;
+    private final List<TableInfo> tables;
+    private final LocalDateTime loadedAt = LocalDateTime.now();
+    // changes whenever a table, column or key changes
+    private final String fingerprint;
+    @JsonIgnore
+    private final String promptText;
+    // catalog version used for DDL change detection, null when not supported
+    @JsonIgnore
+    private final String ddlVersion;
+    @JsonIgnore
+    private volatile long lastValidated = System.currentTimeMillis();
+
+    public SchemaModel(Integer connectionId, List<TableInfo> tables, String ddlVersion) {
+        this.connectionId = connectionId;
+        this.tables = List.copyOf(tables);
+        this.ddlVersion = ddlVersion;
+
+        StringBuilder schema = new StringBuilder("Database schema:\n");
+        this.tables.forEach(table -> schema.append(table.render()));
+        this.promptText = schema.toString();
+        this.fingerprint = sha256(promptText);
+    }
+
+    void markValidated() {
+        lastValidated = System.currentTimeMillis();
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
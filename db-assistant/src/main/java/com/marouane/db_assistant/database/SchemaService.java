@@ -1,53 +1,242 @@
 package com.marouane.db_assistant.database;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Schema introspection for the target databases. The schema of each connection is read with
+ * one bulk catalog query for columns and one for keys, then cached until the TTL expires, an
+ * explicit refresh, or (PostgreSQL, optional) a change of the table catalog.
+ */
+@Slf4j
 @Service
 public class SchemaService {
+    private final Map<Integer, SchemaModel> cache = new ConcurrentHashMap<>();
 
-    public String extractSchemaInfo(DataSource dataSource) {
-        StringBuilder schema = new StringBuilder("Database schema:\n");
-        try (Connection connection = dataSource.getConnection()) {
-            DatabaseMetaData metaData = connection.getMetaData();
-
-            try (ResultSet tables = metaData.getTables(connection.getCatalog(), null, "%", new String[]{"TABLE"})) {
-                while (tables.next()){
-                    String tableName = tables.getString("TABLE_NAME");
-                    String tableSchema = tables.getString("TABLE_SCHEM");
-
-                    schema.append("Table: ")
-                            .append(tableSchema != null ? tableSchema + "." : "")
-                            .append(tableName)
-                            .append(" (\n");
-
-
-                    try(ResultSet columns = metaData.getColumns(connection.getCatalog(), tableSchema, tableName, null)){
-                        boolean first = true;
-                        while (columns.next()){
-                            if (!first) {
-                                schema.append(",\n");
-                            }
-                            schema.append(" ")
-                                    .append(columns.getString("COLUMN_NAME"))
-                                    .append(" ")
-                                    .append(columns.getString("TYPE_NAME"));
-                            first = false;
-                        }
-                    }
-                    schema.append("\n)\n\n");
+    @Value("${application.schema.cache.ttl}")
+    private long ttl;
+
+    @Value("${application.schema.cache.ddl-check.enabled}")
+    private boolean ddlCheckEnabled;
+
+    @Value("${application.schema.cache.ddl-check.interval}")
+    private long ddlCheckInterval;
+
+    private static final String POSTGRES_COLUMNS = """
+            SELECT n.nspname, c.relname, a.attname, format_type(a.atttypid, a.atttypmod), NOT a.attnotnull
+            FROM pg_catalog.pg_class c
+            JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace
+            JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped
+            WHERE c.relkind IN ('r', 'p') AND NOT c.relispartition
+              AND n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg_toast%'
+            ORDER BY n.nspname, c.relname, a.attnum
+            """;
+
+    private static final String POSTGRES_KEYS = """
+            SELECT n.nspname, c.relname, con.contype, a.attname, fn.nspname, fc.relname, fa.attname
+            FROM pg_catalog.pg_constraint con
+            JOIN pg_catalog.pg_class c ON c.oid = con.conrelid
+            JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace
+            CROSS JOIN LATERAL unnest(con.conkey, con.confkey) WITH ORDINALITY AS k(attnum, fattnum, ord)
+            JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum = k.attnum
+            LEFT JOIN pg_catalog.pg_class fc ON fc.oid = con.confrelid
+            LEFT JOIN pg_catalog.pg_namespace fn ON fn.oid = fc.relnamespace
+            LEFT JOIN pg_catalog.pg_attribute fa ON fa.attrelid = con.confrelid AND fa.attnum = k.fattnum
+            WHERE con.contype IN ('p', 'f') AND n.nspname NOT IN ('pg_catalog', 'information_schema')
+            ORDER BY n.nspname, c.relname, con.conname, k.ord
+            """;
+
+    // Every ALTER TABLE rewrites the pg_class row of the table, which gives it a new xmin
+    private static final String POSTGRES_DDL_VERSION = """
+            SELECT md5(string_agg(c.oid::text || ':' || c.xmin::text, ',' ORDER BY c.oid))
+            FROM pg_catalog.pg_class c
+            JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace
+            WHERE c.relkind IN ('r', 'p') AND n.nspname NOT IN ('pg_catalog', 'information_schema')
+            """;
+
+    private static final String MYSQL_COLUMNS = """
+            SELECT c.TABLE_SCHEMA, c.TABLE_NAME, c.COLUMN_NAME, c.COLUMN_TYPE, c.IS_NULLABLE = 'YES'
+            FROM information_schema.COLUMNS c
+            JOIN information_schema.TABLES t ON t.TABLE_SCHEMA = c.TABLE_SCHEMA AND t.TABLE_NAME = c.TABLE_NAME
+            WHERE t.TABLE_TYPE = 'BASE TABLE' AND c.TABLE_SCHEMA = DATABASE()
+            ORDER BY c.TABLE_NAME, c.ORDINAL_POSITION
+            """;
+
+    private static final String MYSQL_KEYS = """
+            SELECT k.TABLE_SCHEMA, k.TABLE_NAME, CASE WHEN k.CONSTRAINT_NAME = 'PRIMARY' THEN 'p' ELSE 'f' END,
+                   k.COLUMN_NAME, k.REFERENCED_TABLE_SCHEMA, k.REFERENCED_TABLE_NAME, k.REFERENCED_COLUMN_NAME
+            FROM information_schema.KEY_COLUMN_USAGE k
+            WHERE k.TABLE_SCHEMA = DATABASE() AND (k.CONSTRAINT_NAME = 'PRIMARY' OR k.REFERENCED_TABLE_NAME IS NOT NULL)
+            ORDER BY k.TABLE_NAME, k.CONSTRAINT_NAME, k.ORDINAL_POSITION
+            """;
+
+    public String extractSchemaInfo(DatabaseConnection connection, DataSource dataSource) {
+        return getSchema(connection, dataSource).getPromptText();
+    }
+
+    public SchemaModel getSchema(DatabaseConnection connection, DataSource dataSource) {
+        SchemaModel cached = cache.get(connection.getId());
+        if (cached != null && isFresh(cached, connection, dataSource)) {
+            return cached;
+        }
+        return refresh(connection, dataSource);
+    }
+
+    public SchemaModel refresh(DatabaseConnection connection, DataSource dataSource) {
+        SchemaModel model = load(connection, dataSource);
+        if (model != null) {
+            cache.put(connection.getId(), model);
+            return model;
+        }
+        // loading failed, don't cache the empty result
+        return new SchemaModel(connection.getId(), List.of(), null);
+    }
+
+    public void invalidate(Integer connectionId) {
+        cache.remove(connectionId);
+    }
+
+    private boolean isFresh(SchemaModel model, DatabaseConnection connection, DataSource dataSource) {
+        if (model.getLoadedAt().plus(Duration.ofMillis(ttl)).isBefore(LocalDateTime.now())) {
+            return false;
+        }
+        if (!ddlCheckEnabled || model.getDdlVersion() == null
+                || System.currentTimeMillis() - model.getLastValidated() < ddlCheckInterval) {
+            return true;
+        }
+
+        try (Connection conn = dataSource.getConnection()) {
+            boolean unchanged = model.getDdlVersion().equals(ddlVersion(conn, connection.getDbType()));
+            if (unchanged) {
+                model.markValidated();
+            }
+            return unchanged;
+        } catch (SQLException e) {
+            log.warn("DDL change check failed for connection {}: {}", connection.getId(), e.getMessage());
+            return true;
+        }
+    }
+
+    private SchemaModel load(DatabaseConnection connection, DataSource dataSource) {
+        try (Connection conn = dataSource.getConnection()) {
+            return switch (connection.getDbType().toLowerCase()) {
+                case "postgresql" -> new SchemaModel(connection.getId(),
+                        loadBulk(conn, POSTGRES_COLUMNS, POSTGRES_KEYS),
+                        ddlVersion(conn, "postgresql"));
+                case "mysql" -> new SchemaModel(connection.getId(),
+                        loadBulk(conn, MYSQL_COLUMNS, MYSQL_KEYS),
+                        null);
+                default -> new SchemaModel(connection.getId(), loadFromMetaData(conn), null);
+            };
+        } catch (SQLException e) {
+            log.error("Could not read the schema of connection {}", connection.getId(), e);
+            return null;
+        }
+    }
+
+    private List<TableInfo> loadBulk(Connection conn, String columnsQuery, String keysQuery) throws SQLException {
+        Map<String, TableInfo> tables = new LinkedHashMap<>();
+
+        try (PreparedStatement stmt = conn.prepareStatement(columnsQuery);
+             ResultSet columns = stmt.executeQuery()) {
+            while (columns.next()) {
+                table(tables, columns.getString(1), columns.getString(2)).columns().add(new ColumnInfo(
+                        columns.getString(3),
+                        columns.getString(4),
+                        columns.getBoolean(5)
+                ));
+            }
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(keysQuery);
+             ResultSet keys = stmt.executeQuery()) {
+            while (keys.next()) {
+                TableInfo table = tables.get(keys.getString(1) + "." + keys.getString(2));
+                if (table == null) {
+                    continue;
+                }
+                if ("p".equals(keys.getString(3))) {
+                    table.primaryKey().add(keys.getString(4));
+                } else {
+                    table.foreignKeys().add(new ForeignKeyInfo(
+                            keys.getString(4),
+                            keys.getString(5),
+                            keys.getString(6),
+                            keys.getString(7)
+                    ));
                 }
+            }
+        }
+        return freeze(tables);
+    }
 
+    // Generic JDBC fallback for database types without a bulk catalog query
+    private List<TableInfo> loadFromMetaData(Connection connection) throws SQLException {
+        Map<String, TableInfo> tables = new LinkedHashMap<>();
+        DatabaseMetaData metaData = connection.getMetaData();
+
+        // base tables only, the catalog also lists views and system tables
+        try (ResultSet tableRows = metaData.getTables(connection.getCatalog(), null, "%", new String[]{"TABLE"})) {
+            while (tableRows.next()) {
+                table(tables, tableRows.getString("TABLE_SCHEM"), tableRows.getString("TABLE_NAME"));
+            }
+        }
+        // then every column in one call, keeping those of the tables found above
+        try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, "%", "%")) {
+            while (columns.next()) {
+                TableInfo table = tables.get(columns.getString("TABLE_SCHEM") + "." + columns.getString("TABLE_NAME"));
+                if (table == null) {
+                    continue;
+                }
+                table.columns().add(new ColumnInfo(
+                        columns.getString("COLUMN_NAME"),
+                        columns.getString("TYPE_NAME"),
+                        columns.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls
+                ));
             }
-        }catch (SQLException e) {
-            e.printStackTrace();
-            return "";
         }
-        return schema.toString();
+        return freeze(tables);
+    }
+
+    private String ddlVersion(Connection conn, String dbType) throws SQLException {
+        if (!"postgresql".equalsIgnoreCase(dbType)) {
+            return null;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(POSTGRES_DDL_VERSION);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? String.valueOf(rs.getString(1)) : null;
+        }
+    }
+
+    private TableInfo table(Map<String, TableInfo> tables, String schema, String name) {
+        return tables.computeIfAbsent(schema + "." + name, key ->
+                new TableInfo(schema, name, new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+    }
+
+    private List<TableInfo> freeze(Map<String, TableInfo> tables) {
+        return tables.values().stream()
+                .map(table -> new TableInfo(
+                        table.schema(),
+                        table.name(),
+                        List.copyOf(table.columns()),
+                        List.copyOf(table.primaryKey()),
+                        List.copyOf(table.foreignKeys())
+                ))
+                .toList();
     }
 }
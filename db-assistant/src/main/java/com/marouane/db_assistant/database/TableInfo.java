@@ -0,0 +1,49 @@
+package com.marouane.db_assistant.database;
+
+import java.util.List;
+
+public record TableInfo(
+        String schema,
+        String name,
+        List<ColumnInfo> columns,
+        List<String> primaryKey,
+        List<ForeignKeyInfo> foreignKeys
+) {
+    public String qualifiedName() {
+        return schema != null ? schema + "." + name : name;
+    }
+
+    // Same layout as the prompt always used, keys appended after the columns
+    public String render() {
+        StringBuilder table = new StringBuilder("Table: ")
+                .append(qualifiedName())
+                .append(" (\n");
+
+        boolean first = true;
+        for (ColumnInfo column : columns) {
+            if (!first) {
+                table.append(",\n");
+            }
+            table.append(" ")
+                    .append(column.name())
+                    .append(" ")
+                    .append(column.type());
+            first = false;
+        }
+        if (!primaryKey.isEmpty()) {
+            table.append(",\n PRIMARY KEY (")
+                    .append(String.join(", ", primaryKey))
+                    .append(")");
+        }
+        for (ForeignKeyInfo foreignKey : foreignKeys) {
+            table.append(",\n FOREIGN KEY (")
+                    .append(foreignKey.column())
+                    .append(") REFERENCES ")
+                    .append(foreignKey.referencedQualifiedName())
+                    .append("(")
+                    .append(foreignKey.referencedColumn())
+                    .append(")");
+        }
+        return table.append("\n)\n\n").toString();
+    }
+}
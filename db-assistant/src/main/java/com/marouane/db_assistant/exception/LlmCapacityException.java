@@ -0,0 +1,14 @@
+package com.marouane.db_assistant.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+@Getter
+public class LlmCapacityException extends RuntimeException {
+  private final HttpStatus status;
+
+  public LlmCapacityException(HttpStatus status, String message) {
+    super(message);
+    this.status = status;
+  }
+}
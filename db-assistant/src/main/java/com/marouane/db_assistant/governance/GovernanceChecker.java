@@ -0,0 +1,177 @@
+package com.marouane.db_assistant.governance;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marouane.db_assistant.sql.SqlAnalysis;
+import com.marouane.db_assistant.sql.SqlAnalyzer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.alter.Alter;
+import net.sf.jsqlparser.statement.create.table.CreateTable;
+import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.drop.Drop;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.truncate.Truncate;
+import net.sf.jsqlparser.statement.update.Update;
+import net.sf.jsqlparser.util.TablesNamesFinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Enforces the machine-checkable governance rules on the parse tree of a statement, before it is
+ * executed or handed back as generated SQL. The markdown rules remain the model's guidance; this
+ * makes the safety ones hold whatever the model (or the user) writes.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GovernanceChecker {
+    private final ObjectMapper objectMapper;
+    private static final GovernanceViolation UNVERIFIABLE = new GovernanceViolation("parse", GovernanceRule.Severity.BLOCK,
+            "the statement could not be parsed, so it cannot be checked against the rules");
+
+    private List<GovernanceRule> rules;
+
+    @Value("classpath:/docs/sql_governance_rules.json")
+    private Resource rulesFile;
+
+    @PostConstruct
+    void loadRules() throws IOException {
+        try (InputStream in = rulesFile.getInputStream()) {
+            rules = objectMapper.readValue(in, new TypeReference<List<GovernanceRule>>() { });
+        }
+        log.info("Loaded {} governance rules", rules.size());
+    }
+
+    public List<GovernanceViolation> check(SqlAnalysis analysis, GovernanceStage stage) {
+        if (!analysis.parsed() && !analysis.readOnly()) {
+            // only the first word is known: a SELECT may hide a second statement or a data-modifying CTE
+            return List.of(UNVERIFIABLE);
+        }
+
+        // every statement is checked, the driver runs all of them
+        Map<String, GovernanceViolation> violations = new LinkedHashMap<>();
+        for (Statement statement : analysis.statements()) {
+            String statementType = SqlAnalyzer.statementType(statement);
+            for (GovernanceRule rule : rules) {
+                if (rule.appliesTo(statementType, stage) && violates(rule, statement)) {
+                    violations.putIfAbsent(rule.id(), new GovernanceViolation(rule.id(), rule.severity(), rule.message()));
+                }
+            }
+        }
+        return List.copyOf(violations.values());
+    }
+
+    public static boolean isBlocked(List<GovernanceViolation> violations) {
+        return violations.stream().anyMatch(GovernanceViolation::isBlocking);
+    }
+
+    private boolean violates(GovernanceRule rule, Statement statement) {
+        return switch (rule.check()) {
+            case FORBID_STATEMENT -> true;
+            case REQUIRE_WHERE -> isMissingOrTrivial(whereOf(statement));
+            case FORBID_CASCADE -> cascades(statement);
+            case REQUIRE_INSERT_COLUMNS -> statement instanceof Insert insert
+                    && (insert.getColumns() == null || insert.getColumns().isEmpty());
+            case FORBID_SYSTEM_SCHEMA_WRITE -> writesToSchema(statement, rule.schemas());
+            case FORBID_SELECT_STAR -> plainSelects(statement).stream()
+                    .flatMap(plain -> plain.getSelectItems().stream())
+                    .anyMatch(item -> item.getExpression() instanceof AllColumns);
+            case FORBID_CROSS_JOIN -> joinsOf(statement).stream().anyMatch(Join::isCross);
+            case FORBID_IMPLICIT_JOIN -> joinsOf(statement).stream().anyMatch(Join::isSimple);
+        };
+    }
+
+    private Expression whereOf(Statement statement) {
+        if (statement instanceof Delete delete) {
+            return delete.getWhere();
+        }
+        if (statement instanceof Update update) {
+            return update.getWhere();
+        }
+        return null;
+    }
+
+    // WHERE 1 = 1 or WHERE TRUE filter nothing
+    private boolean isMissingOrTrivial(Expression where) {
+        if (where == null) {
+            return true;
+        }
+        if (where instanceof EqualsTo equals) {
+            return equals.getLeftExpression().toString().equals(equals.getRightExpression().toString());
+        }
+        String condition = where.toString().trim().toUpperCase();
+        return condition.equals("TRUE") || condition.equals("1");
+    }
+
+    // the CASCADE option of the statement itself, not a table or column that happens to be named cascade_*
+    private boolean cascades(Statement statement) {
+        return switch (statement) {
+            case Drop drop -> isCascade(drop.getParameters());
+            case Truncate truncate -> truncate.getCascade();
+            case Alter alter -> alter.getAlterExpressions() != null
+                    && alter.getAlterExpressions().stream().anyMatch(expression -> isCascade(expression.getParameters()));
+            default -> false;
+        };
+    }
+
+    private boolean isCascade(List<String> parameters) {
+        return parameters != null && parameters.stream().anyMatch("CASCADE"::equalsIgnoreCase);
+    }
+
+    private boolean writesToSchema(Statement statement, List<String> schemas) {
+        Table target = switch (statement) {
+            case Insert insert -> insert.getTable();
+            case Update update -> update.getTable();
+            case Delete delete -> delete.getTable();
+            case Drop drop -> drop.getName();
+            case Truncate truncate -> truncate.getTable();
+            case Alter alter -> alter.getTable();
+            case CreateTable create -> create.getTable();
+            default -> null;
+        };
+        return target != null && target.getSchemaName() != null
+                && schemas.stream().anyMatch(schema -> schema.equalsIgnoreCase(target.getSchemaName()));
+    }
+
+    private List<Join> joinsOf(Statement statement) {
+        return plainSelects(statement).stream()
+                .filter(plain -> plain.getJoins() != null)
+                .flatMap(plain -> plain.getJoins().stream())
+                .toList();
+    }
+
+    // Every SELECT in the statement: the UNION branches, the WITH items, the parenthesized selects and the
+    // subqueries in FROM, joins and expressions. The finder already walks all of them to collect the tables.
+    private List<PlainSelect> plainSelects(Statement statement) {
+        if (!(statement instanceof Select)) {
+            return List.of();
+        }
+        List<PlainSelect> selects = new ArrayList<>();
+        new TablesNamesFinder() {
+            @Override
+            public void visit(PlainSelect plainSelect) {
+                selects.add(plainSelect);
+                super.visit(plainSelect);
+            }
+        }.getTables(statement);
+        return selects;
+    }
+}
@@ -0,0 +1,38 @@
+package com.marouane.db_assistant.governance;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One machine-checkable rule of docs/sql_governance_rules.md, as listed in sql_governance_rules.json.
+ * The id refers to the numbering of the markdown document.
+ */
+public record GovernanceRule(
+        String id,
+        Check check,
+        List<String> statements,
+        List<String> schemas,
+        Severity severity,
+        Set<GovernanceStage> stages,
+        String message
+) {
+    public enum Check {
+        REQUIRE_WHERE,
+        FORBID_STATEMENT,
+        FORBID_CASCADE,
+        REQUIRE_INSERT_COLUMNS,
+        FORBID_SYSTEM_SCHEMA_WRITE,
+        FORBID_SELECT_STAR,
+        FORBID_CROSS_JOIN,
+        FORBID_IMPLICIT_JOIN
+    }
+
+    public enum Severity {
+        BLOCK, // the statement is refused
+        WARN   // the statement runs, the violation is reported
+    }
+
+    public boolean appliesTo(String statementType, GovernanceStage stage) {
+        return stages.contains(stage) && (statements == null || statements.contains(statementType));
+    }
+}
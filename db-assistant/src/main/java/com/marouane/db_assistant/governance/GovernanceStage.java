@@ -0,0 +1,6 @@
+package com.marouane.db_assistant.governance;
+
+public enum GovernanceStage {
+    GENERATION, // SQL written by the model
+    EXECUTION   // SQL sent to the target database
+}
@@ -0,0 +1,13 @@
+package com.marouane.db_assistant.governance;
+
+public record GovernanceViolation(String ruleId, GovernanceRule.Severity severity, String message) {
+
+    public boolean isBlocking() {
+        return severity == GovernanceRule.Severity.BLOCK;
+    }
+
+    @Override
+    public String toString() {
+        return "Rule " + ruleId + ": " + message;
+    }
+}
@@ -0,0 +1,245 @@
+package com.marouane.db_assistant.llm;
+
+import com.marouane.db_assistant.exception.LlmCapacityException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for LLM calls. At most max-concurrent calls run at once, over all users.
+ * Each user has a token bucket limiting how fast they can start calls. Calls that find no free slot
+ * wait in a weighted fair queue: every user gets a share proportional to the weight of their role,
+ * so one busy user cannot push everyone else back. A full queue or a too long wait is rejected
+ * with 429 / 503 instead of piling up.
+ */
+@Slf4j
+@Component
+public class LlmCallScheduler {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparingDouble(Waiter::finishTag).thenComparingLong(Waiter::sequence));
+    private final Map<Integer, UserState> users = new ConcurrentHashMap<>();
+    private final int maxConcurrent;
+    private final int maxQueueDepth;
+    private final long maxWaitNanos;
+    private final double bucketCapacity;
+    private final double refillPerSecond;
+    private final Map<String, Integer> roleWeights;
+    private final Timer waitTimer;
+    private final MeterRegistry meterRegistry;
+
+    // guarded by lock
+    private int active;
+    private double virtualTime;
+    private long sequence;
+
+    private record Waiter(double finishTag, long sequence, Condition granted, AtomicBoolean done) {
+    }
+
+    private static final class UserState {
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        // finish tag of the user's last queued call, their next one is ordered after it
+        private double lastFinishTag;
+
+        private UserState(double tokens) {
+            this.tokens = tokens;
+        }
+    }
+
+    /**
+     * Held while a call runs; closing it hands the slot to the next waiter.
+     */
+    public final class Permit implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release();
+            }
+        }
+    }
+
+    public LlmCallScheduler(
+            MeterRegistry meterRegistry,
+            @Value("${application.llm.scheduler.max-concurrent}") int maxConcurrent,
+            @Value("${application.llm.scheduler.max-queue-depth}") int maxQueueDepth,
+            @Value("${application.llm.scheduler.max-wait}") long maxWait,
+            @Value("${application.llm.scheduler.user-burst}") double bucketCapacity,
+            @Value("${application.llm.scheduler.user-calls-per-minute}") double callsPerMinute,
+            @Value("#{${application.llm.scheduler.role-weights}}") Map<String, Integer> roleWeights
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.bucketCapacity = bucketCapacity;
+        this.refillPerSecond = callsPerMinute / 60.0;
+        this.roleWeights = roleWeights;
+
+        Gauge.builder("llm.scheduler.queue.depth", this, LlmCallScheduler::queueDepth)
+                .description("LLM calls waiting for a slot")
+                .register(meterRegistry);
+        Gauge.builder("llm.scheduler.active", this, LlmCallScheduler::activeCalls)
+                .description("LLM calls running")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("llm.scheduler.wait")
+                .description("Time LLM calls waited for a slot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Blocks until the call may start.
+     *
+     * @throws LlmCapacityException when the user is over their rate, the queue is full or the wait timed out
+     */
+    public Permit acquire(Authentication connectedUser, Integer userId) {
+        int weight = weightOf(connectedUser);
+        long enqueuedAt = System.nanoTime();
+        Waiter waiter = null;
+
+        lock.lock();
+        try {
+            UserState state = users.computeIfAbsent(userId, id -> new UserState(bucketCapacity));
+            boolean startsNow = active < maxConcurrent && queue.isEmpty();
+            // checked before the rate: a call turned away because everyone is busy costs the user nothing
+            if (!startsNow && queue.size() >= maxQueueDepth) {
+                throw reject("queue_full", HttpStatus.TOO_MANY_REQUESTS,
+                        "The assistant is busy, please try again shortly.");
+            }
+            if (!tryConsumeToken(state)) {
+                throw reject("rate_limited", HttpStatus.TOO_MANY_REQUESTS,
+                        "Too many questions in a short time, please wait a moment.");
+            }
+            if (startsNow) {
+                active++;
+                waitTimer.record(0, TimeUnit.NANOSECONDS);
+                return new Permit();
+            }
+
+            double finishTag = Math.max(virtualTime, state.lastFinishTag) + 1.0 / weight;
+            state.lastFinishTag = finishTag;
+            waiter = new Waiter(finishTag, sequence++, lock.newCondition(), new AtomicBoolean());
+            queue.add(waiter);
+
+            long remaining = maxWaitNanos;
+            while (!waiter.done().get()) {
+                if (remaining <= 0) {
+                    queue.remove(waiter);
+                    throw reject("timeout", HttpStatus.SERVICE_UNAVAILABLE,
+                            "The assistant is busy, please try again shortly.");
+                }
+                remaining = waiter.granted().awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (waiter.done().get()) {
+                // granted right before the interrupt, pass the slot on
+                release();
+            } else {
+                queue.remove(waiter);
+            }
+            throw reject("interrupted", HttpStatus.SERVICE_UNAVAILABLE, "Request interrupted");
+        } finally {
+            lock.unlock();
+        }
+
+        waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+        return new Permit();
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            Waiter next = queue.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+            // the slot goes straight to the next waiter, active stays the same
+            virtualTime = next.finishTag();
+            next.done().set(true);
+            next.granted().signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private LlmCapacityException reject(String reason, HttpStatus status, String message) {
+        Counter.builder("llm.scheduler.rejections")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        return new LlmCapacityException(status, message);
+    }
+
+    // called with the lock held
+    private boolean tryConsumeToken(UserState state) {
+        long now = System.nanoTime();
+        state.tokens = Math.min(bucketCapacity, state.tokens + (now - state.refilledAt) / 1e9 * refillPerSecond);
+        state.refilledAt = now;
+        if (state.tokens < 1) {
+            return false;
+        }
+        state.tokens--;
+        return true;
+    }
+
+    private int weightOf(Authentication connectedUser) {
+        return connectedUser.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .map(authority -> roleWeights.getOrDefault(authority, 1))
+                .max(Integer::compare)
+                .orElse(1);
+    }
+
+    private int queueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int activeCalls() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Users whose bucket refilled and who have nothing queued carry no state worth keeping
+    @Scheduled(fixedDelayString = "${application.llm.scheduler.cleanup-interval}")
+    public void forgetIdleUsers() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            users.values().removeIf(state ->
+                    state.tokens + (now - state.refilledAt) / 1e9 * refillPerSecond >= bucketCapacity
+                            && state.lastFinishTag <= virtualTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -15,7 +15,10 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "chat_messages")
+@Table(
+        name = "chat_messages",
+        indexes = @Index(name = "idx_chat_messages_user_connection_sent", columnList = "user_id, connection_id, sent_at")
+)
 public class ChatMessage {
     @Id
     @GeneratedValue
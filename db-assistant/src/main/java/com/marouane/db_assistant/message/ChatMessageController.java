@@ -1,5 +1,6 @@
 package com.marouane.db_assistant.message;
 
+import com.marouane.db_assistant.common.PageResponse;
 import com.marouane.db_assistant.database.ConnectionManager;
 import com.marouane.db_assistant.database.DatabaseConnection;
 import com.marouane.db_assistant.user.User;
@@ -12,6 +13,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -35,6 +37,27 @@ public class ChatMessageController {
         return chatMessageService.getMessagesByConnection(auth, connection);
     }
 
+    @GetMapping(value = "/page", produces = "application/json")
+    @Operation(
+            summary = "Get one page of chat messages",
+            description = "Keyset-paginated messages of the active connection, oldest first. Without a cursor returns the latest messages; " +
+                    "pass the returned before cursor to load older messages, or the after cursor to load newer ones."
+    )
+    public ResponseEntity<PageResponse<ChatMessageResponseDto>> getMessagesPage(
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer size,
+            Authentication auth
+    ) {
+        User user = (User) auth.getPrincipal();
+        DatabaseConnection connection = connectionManager.getActiveConnection(user.getId());
+        try {
+            return ResponseEntity.ok(chatMessageService.getMessagesPage(auth, connection, before, after, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @DeleteMapping(produces = "application/json")
     @Operation(
             summary = "Clear chat messages",
@@ -2,11 +2,72 @@ package com.marouane.db_assistant.message;
 
 import com.marouane.db_assistant.database.DatabaseConnection;
 import com.marouane.db_assistant.user.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Integer> {
     List<ChatMessage> findByUserAndConnectionOrderBySentAtAsc(User user, DatabaseConnection connection);
+
+    @Query("""
+            select new com.marouane.db_assistant.message.ChatMessageResponseDto(m.id, m.sender, m.content, m.sentAt)
+            from ChatMessage m
+            where m.user = :user and m.connection = :connection
+            order by m.sentAt asc, m.id asc
+            """)
+    List<ChatMessageResponseDto> findConversation(@Param("user") User user, @Param("connection") DatabaseConnection connection);
+
+    @Query("""
+            select new com.marouane.db_assistant.message.ChatMessageResponseDto(m.id, m.sender, m.content, m.sentAt)
+            from ChatMessage m
+            where m.user = :user and m.connection = :connection
+            order by m.sentAt desc, m.id desc
+            """)
+    List<ChatMessageResponseDto> findLatest(@Param("user") User user, @Param("connection") DatabaseConnection connection, Limit limit);
+
+    @Query("""
+            select new com.marouane.db_assistant.message.ChatMessageResponseDto(m.id, m.sender, m.content, m.sentAt)
+            from ChatMessage m
+            where m.user = :user and m.connection = :connection
+              and (m.sentAt < :time or (m.sentAt = :time and m.id < :id))
+            order by m.sentAt desc, m.id desc
+            """)
+    List<ChatMessageResponseDto> findBefore(@Param("user") User user, @Param("connection") DatabaseConnection connection,
+                                            @Param("time") LocalDateTime time, @Param("id") Integer id, Limit limit);
+
+    @Query("""
+            select new com.marouane.db_assistant.message.ChatMessageResponseDto(m.id, m.sender, m.content, m.sentAt)
+            from ChatMessage m
+            where m.user = :user and m.connection = :connection
+              and (m.sentAt > :time or (m.sentAt = :time and m.id > :id))
+            order by m.sentAt asc, m.id asc
+            """)
+    List<ChatMessageResponseDto> findAfter(@Param("user") User user, @Param("connection") DatabaseConnection connection,
+                                           @Param("time") LocalDateTime time, @Param("id") Integer id, Limit limit);
+
+    // Chunked so a long conversation does not hold one huge delete transaction
+    @Transactional
+    @Modifying
+    @Query(value = """
+            DELETE FROM chat_messages WHERE id IN (
+                SELECT id FROM chat_messages WHERE user_id = :userId AND connection_id = :connectionId LIMIT :chunkSize
+            )
+            """, nativeQuery = true)
+    int deleteChunkByUserAndConnection(@Param("userId") Integer userId, @Param("connectionId") Integer connectionId,
+                                       @Param("chunkSize") int chunkSize);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            DELETE FROM chat_messages WHERE id IN (
+                SELECT id FROM chat_messages WHERE connection_id = :connectionId LIMIT :chunkSize
+            )
+            """, nativeQuery = true)
+    int deleteChunkByConnection(@Param("connectionId") Integer connectionId, @Param("chunkSize") int chunkSize);
 }
@@ -1,8 +1,13 @@
 package com.marouane.db_assistant.message;
 
+import com.marouane.db_assistant.common.KeysetCursor;
+import com.marouane.db_assistant.common.KeysetPager;
+import com.marouane.db_assistant.common.PageResponse;
 import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.persistence.WriteBehindPersister;
 import com.marouane.db_assistant.user.User;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 
@@ -14,6 +19,11 @@ public class ChatMessageService {
 
     private final ChatMessageRepository chatMessageRepository;
     private final ChatMessageMapper mapper;
+    private final WriteBehindPersister writeBehindPersister;
+    private final KeysetPager keysetPager;
+
+    @Value("${application.persistence.delete-chunk-size}")
+    private int deleteChunkSize;
 
     public ChatMessageResponseDto saveMessage(
             ChatMessageRequestDto request,
@@ -32,18 +42,45 @@ public class ChatMessageService {
         return mapper.toDto(savedMessage);
     }
 
+    /**
+     * Queues the message for the write-behind persister, for callers that do not need it back.
+     */
+    public void recordMessage(SenderType sender, String content, DatabaseConnection connection, Authentication connectedUser) {
+        ChatMessage message = new ChatMessage();
+        message.setUser((User) connectedUser.getPrincipal());
+        message.setConnection(connection);
+        message.setSender(sender);
+        message.setContent(content);
+        writeBehindPersister.save(message);
+    }
+
     public List<ChatMessageResponseDto> getMessagesByConnection(Authentication connectedUser, DatabaseConnection connection) {
         User user = (User) connectedUser.getPrincipal();
 
-        return chatMessageRepository.findByUserAndConnectionOrderBySentAtAsc(user, connection).stream()
-                .map(mapper::toDto)
-                .toList();
+        return chatMessageRepository.findConversation(user, connection);
+    }
+
+    /**
+     * Oldest first, as the chat panel shows them. Without a cursor returns the latest page;
+     * {@code before} pages towards older messages and {@code after} towards newer ones.
+     */
+    public PageResponse<ChatMessageResponseDto> getMessagesPage(Authentication connectedUser, DatabaseConnection connection,
+                                                               String before, String after, Integer size) {
+        User user = (User) connectedUser.getPrincipal();
+        return keysetPager.page(before, after, size, true,
+                limit -> chatMessageRepository.findLatest(user, connection, limit),
+                (cursor, limit) -> chatMessageRepository.findBefore(user, connection, cursor.time(), cursor.id(), limit),
+                (cursor, limit) -> chatMessageRepository.findAfter(user, connection, cursor.time(), cursor.id(), limit),
+                message -> new KeysetCursor(message.getSentAt(), message.getId()));
     }
 
     public void deleteMessagesByConnection(Authentication auth, DatabaseConnection connection) {
         User user = (User) auth.getPrincipal();
-        List<ChatMessage> messages = chatMessageRepository.findByUserAndConnectionOrderBySentAtAsc(user, connection);
-        chatMessageRepository.deleteAll(messages);
+        // messages still queued would reappear after the delete
+        writeBehindPersister.discard(user.getId(), connection.getId());
+        while (chatMessageRepository.deleteChunkByUserAndConnection(user.getId(), connection.getId(), deleteChunkSize) > 0) {
+            // next chunk
+        }
     }
 
 }
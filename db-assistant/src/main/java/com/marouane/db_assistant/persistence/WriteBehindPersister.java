@@ -0,0 +1,348 @@
+package com.marouane.db_assistant.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.message.ChatMessage;
+import com.marouane.db_assistant.message.ChatMessageRepository;
+import com.marouane.db_assistant.message.SenderType;
+import com.marouane.db_assistant.sql.QueryHistory;
+import com.marouane.db_assistant.sql.QueryHistoryRepository;
+import com.marouane.db_assistant.sql.QueryType;
+import com.marouane.db_assistant.user.User;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind persistence for chat messages and query history. Entries are queued in memory and
+ * a background worker inserts them in batches, so request threads never wait on the app database.
+ * When the queue is full the entry is saved synchronously instead of being dropped. On shutdown the
+ * queue is flushed; whatever cannot be written is spilled to a file and replayed on the next start.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WriteBehindPersister {
+    private final ChatMessageRepository chatMessageRepository;
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+
+    private BlockingQueue<Object> queue;
+    private Thread worker;
+    private volatile boolean running;
+    // enqueue checks running and offers under the read lock, shutdown stops under the write lock:
+    // no entry can be offered after the final drain
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final ReentrantLock spillLock = new ReentrantLock();
+    // held by the worker from taking a batch until it is written, so flush() also waits for that batch;
+    // fair, the worker re-acquires it right away
+    private final ReentrantLock drainLock = new ReentrantLock(true);
+
+    @Value("${application.persistence.write-behind.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${application.persistence.write-behind.batch-size}")
+    private int batchSize;
+
+    @Value("${application.persistence.write-behind.flush-interval}")
+    private long flushInterval;
+
+    @Value("${application.persistence.write-behind.spill-file}")
+    private Path spillFile;
+
+    private record SpilledWrite(
+            String type,
+            Integer userId,
+            Integer connectionId,
+            String text,
+            String kind,
+            LocalDateTime at
+    ) {
+    }
+
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        replaySpillFile();
+        running = true;
+        worker = Thread.ofPlatform().name("write-behind").daemon().start(this::drainLoop);
+    }
+
+    public void save(ChatMessage message) {
+        enqueue(message);
+    }
+
+    public void save(QueryHistory history) {
+        enqueue(history);
+    }
+
+    private void enqueue(Object entity) {
+        stateLock.readLock().lock();
+        try {
+            if (running && queue.offer(entity)) {
+                return;
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        // back pressure instead of losing the entry, and the only way in once shutdown started
+        log.debug("Write-behind queue full or stopped, saving synchronously");
+        write(List.of(entity));
+    }
+
+    /**
+     * Writes everything queued so far from the calling thread, after the batch the worker may be writing
+     * right now. Once it returns, every entry saved before the call is in the database.
+     */
+    public void flush() {
+        drainLock.lock();
+        try {
+            List<Object> pending = new ArrayList<>();
+            queue.drainTo(pending);
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                write(pending.subList(from, Math.min(from + batchSize, pending.size())));
+            }
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the queued entries of a connection, limited to one user unless {@code userId} is null, ahead of
+     * a delete of their rows. Does not wait for the worker: a batch it is writing right now can still land
+     * after the caller's delete.
+     */
+    public void discard(Integer userId, Integer connectionId) {
+        queue.removeIf(entity -> belongsTo(entity, userId, connectionId));
+    }
+
+    private static boolean belongsTo(Object entity, Integer userId, Integer connectionId) {
+        User user;
+        DatabaseConnection connection;
+        if (entity instanceof ChatMessage message) {
+            user = message.getUser();
+            connection = message.getConnection();
+        } else if (entity instanceof QueryHistory history) {
+            user = history.getUser();
+            connection = history.getConnection();
+        } else {
+            return false;
+        }
+        return connectionId.equals(connection.getId()) && (userId == null || userId.equals(user.getId()));
+    }
+
+    private void drainLoop() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        while (running) {
+            drainLock.lock();
+            try {
+                // bounded wait: flush() queues behind it
+                Object first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // linger up to the flush interval so bursts go out as one batch
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Object next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                break;
+            } finally {
+                drainLock.unlock();
+            }
+        }
+    }
+
+    private void write(List<Object> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> saveAll(batch));
+        } catch (RuntimeException e) {
+            // one bad row (e.g. its connection was deleted meanwhile) must not take the others down
+            log.warn("Batch insert of {} entries failed, retrying one by one: {}", batch.size(), e.getMessage());
+            List<Object> failed = new ArrayList<>();
+            for (Object entity : batch) {
+                // an id handed out in the rolled back transaction would make save() merge a row that does not exist
+                clearId(entity);
+                try {
+                    transactionTemplate.executeWithoutResult(status -> saveAll(List.of(entity)));
+                } catch (DataIntegrityViolationException single) {
+                    // its user or connection is gone, no retry can ever write it
+                    log.warn("Dropping {}: {}", entity.getClass().getSimpleName(), single.getMessage());
+                } catch (RuntimeException single) {
+                    failed.add(entity);
+                }
+            }
+            if (!failed.isEmpty()) {
+                log.error("Could not write {} entries, spilling them to {}", failed.size(), spillFile);
+                spill(failed);
+            }
+        }
+    }
+
+    private static void clearId(Object entity) {
+        if (entity instanceof ChatMessage message) {
+            message.setId(null);
+        } else if (entity instanceof QueryHistory history) {
+            history.setId(null);
+        }
+    }
+
+    // spilled entries are turned back into entities inside the transaction that saves them
+    private void saveAll(List<Object> batch) {
+        List<ChatMessage> messages = new ArrayList<>();
+        List<QueryHistory> histories = new ArrayList<>();
+        for (Object item : batch) {
+            Object entity = item instanceof SpilledWrite spilled ? fromSpilled(spilled) : item;
+            if (entity instanceof ChatMessage message) {
+                messages.add(message);
+            } else if (entity instanceof QueryHistory history) {
+                histories.add(history);
+            }
+        }
+        chatMessageRepository.saveAll(messages);
+        queryHistoryRepository.saveAll(histories);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+
+        List<Object> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        if (pending.isEmpty()) {
+            return;
+        }
+        log.info("Flushing {} pending writes before shutdown", pending.size());
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            List<Object> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+            try {
+                transactionTemplate.executeWithoutResult(status -> saveAll(batch));
+            } catch (RuntimeException e) {
+                // the batches before this one are committed, only the rest is spilled
+                log.error("Could not flush pending writes, spilling the remaining {} to {}", pending.size() - from, spillFile, e);
+                spill(pending.subList(from, pending.size()));
+                return;
+            }
+        }
+    }
+
+    private void spill(List<Object> entries) {
+        // file I/O under a lock, a monitor would pin the carrier thread
+        spillLock.lock();
+        try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Object entity : entries) {
+                writer.write(objectMapper.writeValueAsString(toSpilled(entity)));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            log.error("Lost {} pending writes, spill file not writable", entries.size(), e);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private SpilledWrite toSpilled(Object entity) {
+        if (entity instanceof SpilledWrite spilled) {
+            return spilled;
+        }
+        if (entity instanceof ChatMessage message) {
+            return new SpilledWrite("message", message.getUser().getId(), message.getConnection().getId(),
+                    message.getContent(), message.getSender().name(), message.getSentAt());
+        }
+        QueryHistory history = (QueryHistory) entity;
+        return new SpilledWrite("history", history.getUser().getId(), history.getConnection().getId(),
+                history.getQuery(), history.getQueryType().name(), history.getQueryTime());
+    }
+
+    private void replaySpillFile() {
+        if (!Files.exists(spillFile)) {
+            return;
+        }
+        List<Object> spilled = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(spillFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    spilled.add(objectMapper.readValue(line, SpilledWrite.class));
+                }
+            }
+            // entries failing again are appended to a fresh spill file by write()
+            Files.delete(spillFile);
+        } catch (IOException e) {
+            log.error("Could not read spill file {}, keeping it for the next start", spillFile, e);
+            return;
+        }
+        for (int from = 0; from < spilled.size(); from += batchSize) {
+            write(spilled.subList(from, Math.min(from + batchSize, spilled.size())));
+        }
+        log.info("Replayed {} writes spilled by the previous run", spilled.size());
+    }
+
+    private Object fromSpilled(SpilledWrite spilled) {
+        User user = entityManager.getReference(User.class, spilled.userId());
+        DatabaseConnection connection = entityManager.getReference(DatabaseConnection.class, spilled.connectionId());
+
+        if (spilled.type().equals("message")) {
+            ChatMessage message = new ChatMessage();
+            message.setUser(user);
+            message.setConnection(connection);
+            message.setSender(SenderType.valueOf(spilled.kind()));
+            message.setContent(spilled.text());
+            message.setSentAt(spilled.at());
+            return message;
+        }
+        QueryHistory history = new QueryHistory();
+        history.setUser(user);
+        history.setConnection(connection);
+        history.setQuery(spilled.text());
+        history.setQueryType(QueryType.valueOf(spilled.kind()));
+        history.setQueryTime(spilled.at());
+        return history;
+    }
+}
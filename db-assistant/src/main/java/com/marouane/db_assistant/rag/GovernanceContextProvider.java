@@ -0,0 +1,150 @@
+package com.marouane.db_assistant.rag;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Serves the governance rules relevant to a question from memory. The rules document is split into
+ * one chunk per rule at startup and ranked with BM25, so a generation costs neither an embedding call
+ * nor a vector store query. The safety rules are part of every context.
+ */
+@Slf4j
+@Component
+public class GovernanceContextProvider {
+    private static final Pattern SECTION = Pattern.compile("^##\\s+(\\d+)\\.\\s+(.*)$");
+    private static final Pattern RULE = Pattern.compile("^(\\d+)\\.\\s+(.*)$");
+    private static final Pattern TOKEN = Pattern.compile("[a-z0-9_]+");
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "how", "i", "in", "is", "it",
+            "me", "my", "of", "on", "or", "show", "that", "the", "their", "to", "what", "when", "which",
+            "with", "all", "give", "list", "get", "find");
+    // BM25 parameters, the usual defaults
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final String SAFETY_SECTION = "1";
+
+    @Value("classpath:/docs/sql_governance_rules.md")
+    private Resource rulesDocument;
+
+    @Value("${application.governance.context.top-k}")
+    private int topK;
+
+    private List<Chunk> chunks = List.of();
+    private Map<String, Integer> documentFrequency = Map.of();
+    private double averageLength;
+
+    private record Chunk(String section, String text, Map<String, Integer> termFrequency, int length) {
+    }
+
+    @PostConstruct
+    void load() throws IOException {
+        String markdown = rulesDocument.getContentAsString(StandardCharsets.UTF_8);
+        List<Chunk> loaded = new ArrayList<>();
+
+        String sectionNumber = null;
+        String sectionTitle = null;
+        StringBuilder rule = null;
+        for (String rawLine : markdown.split("\\R")) {
+            String line = rawLine.trim();
+            Matcher section = SECTION.matcher(line);
+            Matcher ruleStart = RULE.matcher(line);
+            if (section.matches()) {
+                addChunk(loaded, sectionNumber, rule);
+                rule = null;
+                sectionNumber = section.group(1);
+                sectionTitle = section.group(2);
+            } else if (sectionNumber != null && ruleStart.matches()) {
+                addChunk(loaded, sectionNumber, rule);
+                rule = new StringBuilder("Rule " + sectionNumber + "." + ruleStart.group(1)
+                        + " (" + sectionTitle + "): " + ruleStart.group(2));
+            } else if (rule != null && !line.isEmpty()) {
+                rule.append('\n').append("    ").append(line);
+            }
+        }
+        addChunk(loaded, sectionNumber, rule);
+
+        Map<String, Integer> frequency = new HashMap<>();
+        loaded.forEach(chunk -> chunk.termFrequency().keySet().forEach(term -> frequency.merge(term, 1, Integer::sum)));
+
+        this.chunks = List.copyOf(loaded);
+        this.documentFrequency = frequency;
+        this.averageLength = loaded.stream().mapToInt(Chunk::length).average().orElse(1);
+        log.info("Loaded {} governance rules into the in-memory index", chunks.size());
+    }
+
+    private void addChunk(List<Chunk> chunks, String section, StringBuilder rule) {
+        if (rule == null) {
+            return;
+        }
+        String text = rule.toString();
+        List<String> terms = tokenize(text);
+        Map<String, Integer> termFrequency = terms.stream()
+                .collect(Collectors.toMap(term -> term, term -> 1, Integer::sum));
+        chunks.add(new Chunk(section, text, termFrequency, terms.size()));
+    }
+
+    /**
+     * The safety rules followed by the topK other rules that best match the question, in document order.
+     */
+    public String context(String question) {
+        List<String> queryTerms = tokenize(question).stream().distinct().toList();
+
+        Set<Integer> best = IntStream.range(0, chunks.size())
+                .filter(i -> !SAFETY_SECTION.equals(chunks.get(i).section()))
+                .boxed()
+                .map(i -> Map.entry(i, score(chunks.get(i), queryTerms)))
+                .filter(entry -> entry.getValue() > 0)
+                .sorted(Map.Entry.<Integer, Double>comparingByValue(Comparator.reverseOrder()))
+                .limit(topK)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+
+        return IntStream.range(0, chunks.size())
+                .filter(i -> SAFETY_SECTION.equals(chunks.get(i).section()) || best.contains(i))
+                .mapToObj(i -> chunks.get(i).text())
+                .collect(Collectors.joining("\n"));
+    }
+
+    private double score(Chunk chunk, List<String> queryTerms) {
+        double score = 0;
+        for (String term : queryTerms) {
+            Integer tf = chunk.termFrequency().get(term);
+            if (tf == null) {
+                continue;
+            }
+            int df = documentFrequency.get(term);
+            double idf = Math.log(1 + (chunks.size() - df + 0.5) / (df + 0.5));
+            score += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * chunk.length() / averageLength));
+        }
+        return score;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String term = matcher.group();
+            if (!STOP_WORDS.contains(term)) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,307 @@
+package com.marouane.db_assistant.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Vector store kept in the heap, for corpora small enough that an exact scan is cheaper than a round
+ * trip to pgvector (up to roughly 100k vectors). Vectors are normalized when added, so a search is
+ * one dot product per document. The content is snapshotted to a JSON file and loaded back at startup,
+ * which spares re-embedding the documents after a restart.
+ */
+@Slf4j
+public class InMemoryVectorStore implements VectorStore {
+    private final String name;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final Path snapshotFile;
+    private final int embeddingBatchSize;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean dirty;
+
+    record Entry(String id, String text, Map<String, Object> metadata, float[] embedding) {
+    }
+
+    private record Hit(Entry entry, double score) {
+    }
+
+    public InMemoryVectorStore(String name, EmbeddingModel embeddingModel, ObjectMapper objectMapper,
+                               Path snapshotFile, int embeddingBatchSize) {
+        this.name = name;
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.snapshotFile = snapshotFile;
+        this.embeddingBatchSize = embeddingBatchSize;
+        load();
+    }
+
+    @Override
+    public String getName() {
+        return "in-memory-" + name;
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        // embedded outside the lock, searches keep running meanwhile
+        List<Entry> added = new ArrayList<>(documents.size());
+        for (int from = 0; from < documents.size(); from += embeddingBatchSize) {
+            List<Document> batch = documents.subList(from, Math.min(from + embeddingBatchSize, documents.size()));
+            List<float[]> embeddings = embeddingModel.embed(batch.stream().map(Document::getText).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                Document document = batch.get(i);
+                added.add(new Entry(document.getId(), document.getText(),
+                        new HashMap<>(document.getMetadata()), normalize(embeddings.get(i))));
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            added.forEach(entry -> entries.put(entry.id(), entry));
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            idList.forEach(entries::remove);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        lock.writeLock().lock();
+        try {
+            entries.values().removeIf(entry -> matches(filterExpression, entry.metadata()));
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+        Filter.Expression filter = request.getFilterExpression();
+
+        // min-heap of the best topK so far
+        PriorityQueue<Hit> best = new PriorityQueue<>(Comparator.comparingDouble(Hit::score));
+        lock.readLock().lock();
+        try {
+            for (Entry entry : entries.values()) {
+                if (filter != null && !matches(filter, entry.metadata())) {
+                    continue;
+                }
+                double score = dot(query, entry.embedding());
+                if (score < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                if (best.size() < request.getTopK()) {
+                    best.add(new Hit(entry, score));
+                } else if (score > best.peek().score()) {
+                    best.poll();
+                    best.add(new Hit(entry, score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return best.stream()
+                .sorted(Comparator.comparingDouble(Hit::score).reversed())
+                .map(hit -> Document.builder()
+                        .id(hit.entry().id())
+                        .text(hit.entry().text())
+                        .metadata(new HashMap<>(hit.entry().metadata()))
+                        .score(hit.score())
+                        .build())
+                .toList();
+    }
+
+    /**
+     * The stored documents without their embeddings, matching the filter.
+     */
+    public List<Document> documents(Filter.Expression filter) {
+        lock.readLock().lock();
+        try {
+            return entries.values().stream()
+                    .filter(entry -> filter == null || matches(filter, entry.metadata()))
+                    .map(entry -> Document.builder()
+                            .id(entry.id())
+                            .text(entry.text())
+                            .metadata(new HashMap<>(entry.metadata()))
+                            .build())
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the content to the snapshot file if it changed since the last snapshot.
+     * The file is replaced atomically, a crash mid-write leaves the previous snapshot.
+     */
+    public void snapshotIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        List<Entry> copy;
+        lock.readLock().lock();
+        try {
+            // cleared before the copy: a change made after it marks the store dirty again
+            dirty = false;
+            copy = List.copyOf(entries.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try {
+            Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), copy);
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.error("Could not snapshot vector store {} to {}", name, snapshotFile, e);
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try {
+            List<Entry> loaded = objectMapper.readValue(snapshotFile.toFile(), new TypeReference<List<Entry>>() { });
+            loaded.forEach(entry -> entries.put(entry.id(), entry));
+            log.info("Loaded {} documents into vector store {} from {}", entries.size(), name, snapshotFile);
+        } catch (IOException e) {
+            // the documents are re-ingested or re-indexed on demand, a broken snapshot only costs embeddings
+            log.warn("Ignoring unreadable snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        if (norm == 0) {
+            return vector;
+        }
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    // four independent sums: the loop is bound by the additions, not by one dependency chain
+    private static double dot(float[] a, float[] b) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    // Evaluates the portable filter expressions (the same strings the pgvector store accepts).
+    // The switch has no default: a new operator in Spring AI fails the build instead of a search.
+    private static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        return switch (expression.type()) {
+            case AND -> matches(operand(expression.left()), metadata) && matches(operand(expression.right()), metadata);
+            case OR -> matches(operand(expression.left()), metadata) || matches(operand(expression.right()), metadata);
+            case NOT -> !matches(operand(expression.left()), metadata);
+            case EQ -> equal(value(expression, metadata), constant(expression));
+            case NE -> !equal(value(expression, metadata), constant(expression));
+            case GT -> compares(expression, metadata, order -> order > 0);
+            case GTE -> compares(expression, metadata, order -> order >= 0);
+            case LT -> compares(expression, metadata, order -> order < 0);
+            case LTE -> compares(expression, metadata, order -> order <= 0);
+            case IN -> constants(expression).stream().anyMatch(c -> equal(value(expression, metadata), c));
+            case NIN -> constants(expression).stream().noneMatch(c -> equal(value(expression, metadata), c));
+        };
+    }
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        return operand instanceof Filter.Group group ? group.content() : (Filter.Expression) operand;
+    }
+
+    private static Object value(Filter.Expression expression, Map<String, Object> metadata) {
+        String key = ((Filter.Key) expression.left()).key();
+        return metadata.get(key);
+    }
+
+    private static Object constant(Filter.Expression expression) {
+        return ((Filter.Value) expression.right()).value();
+    }
+
+    // the builder takes a list, a single value is a list of one
+    private static List<?> constants(Filter.Expression expression) {
+        return constant(expression) instanceof List<?> list ? list : List.of(constant(expression));
+    }
+
+    // numbers compare by value whatever their boxed type: ids are Integers in memory, may be Longs after a snapshot
+    private static boolean equal(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return Double.compare(a.doubleValue(), e.doubleValue()) == 0;
+        }
+        return Objects.equals(actual, expected);
+    }
+
+    // a missing value, or one of another type than the constant, is neither before nor after it
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean compares(Filter.Expression expression, Map<String, Object> metadata, IntPredicate outcome) {
+        Object actual = value(expression, metadata);
+        Object expected = constant(expression);
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return outcome.test(Double.compare(a.doubleValue(), e.doubleValue()));
+        }
+        if (actual instanceof Comparable comparable && expected != null && actual.getClass() == expected.getClass()) {
+            return outcome.test(comparable.compareTo(expected));
+        }
+        return false;
+    }
+}
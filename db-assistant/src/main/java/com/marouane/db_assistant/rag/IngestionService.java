@@ -1,41 +1,225 @@
 package com.marouane.db_assistant.rag;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
 import org.springframework.ai.reader.TextReader;
 import org.springframework.ai.transformer.splitter.TextSplitter;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the RAG store in line with the documents in the docs directory. Every chunk is identified by
+ * the hash of its source and text, so a run only embeds the chunks that changed and deletes the ones
+ * that disappeared; an unchanged directory costs no embedding call at all.
+ * Runs in the background so startup does not wait on the embedding model.
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class IngestionService implements CommandLineRunner {
+    private static final String HASH_KEY = "contentHash";
+    private static final String SOURCE_KEY = "source";
 
     private final VectorStore vectorStore;
+    private final String documentsLocation;
+    private final String kind;
+    private final int batchSize;
+
+    private final AtomicInteger pendingChunks = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Counter addedChunks;
+    private final Counter deletedChunks;
+    private final Counter unchangedChunks;
+    private final Timer duration;
+
+    public IngestionService(
+            VectorStores vectorStores,
+            MeterRegistry meterRegistry,
+            @Value("${application.rag.ingestion.location}") String documentsLocation,
+            @Value("${application.rag.ingestion.kind}") String kind,
+            @Value("${application.rag.ingestion.batch-size}") int batchSize) {
+        this.vectorStore = vectorStores.forNamespace(kind);
+        this.documentsLocation = documentsLocation;
+        this.kind = kind;
+        this.batchSize = batchSize;
 
-    @Value("classpath:/docs/sql_governance_rules.md")
-    private Resource rulesDocument;
+        Gauge.builder("rag.ingestion.pending", pendingChunks, AtomicInteger::get)
+                .description("Chunks of the current run still to be embedded or deleted")
+                .register(meterRegistry);
+        Gauge.builder("rag.ingestion.running", running, AtomicInteger::get)
+                .description("1 while an ingestion runs")
+                .register(meterRegistry);
+        this.addedChunks = chunkCounter(meterRegistry, "added");
+        this.deletedChunks = chunkCounter(meterRegistry, "deleted");
+        this.unchangedChunks = chunkCounter(meterRegistry, "unchanged");
+        this.duration = Timer.builder("rag.ingestion.duration")
+                .description("Time taken by an ingestion run")
+                .register(meterRegistry);
+    }
 
+    private static Counter chunkCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("rag.ingestion.chunks")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
 
     @Override
-    public void run(String... args) throws Exception {
-        // Check if rules already exist in vector store
-        var existingDocs = vectorStore.similaritySearch("SQL Governance Rules");
+    public void run(String... args) {
+        Thread.ofVirtual().name("rag-ingestion").start(() -> {
+            try {
+                ingest();
+            } catch (Exception e) {
+                log.error("Ingestion of {} failed", documentsLocation, e);
+            }
+        });
+    }
 
-        if (!existingDocs.isEmpty()) {
-            log.info("SQL Governance Rules already ingested, skipping.");
+    public void ingest() throws IOException {
+        if (!running.compareAndSet(0, 1)) {
+            log.info("Ingestion already running, skipping.");
             return;
         }
+        Timer.Sample sample = Timer.start();
+        try {
+            Map<String, Document> wanted = readChunks();
+            Optional<Map<String, String>> stored = storedHashes();
 
-        var textReader = new TextReader(rulesDocument);
+            List<Document> toAdd = new ArrayList<>();
+            List<String> toDelete = new ArrayList<>();
+            if (stored.isPresent()) {
+                wanted.forEach((hash, document) -> {
+                    if (!stored.get().containsKey(hash)) {
+                        toAdd.add(document);
+                    }
+                });
+                stored.get().forEach((hash, id) -> {
+                    if (!wanted.containsKey(hash)) {
+                        toDelete.add(id);
+                    }
+                });
+            } else {
+                // the store cannot list its chunks: replace them all
+                log.info("Vector store does not expose its documents, re-ingesting every '{}' chunk", kind);
+                vectorStore.delete("kind == '" + kind + "'");
+                toAdd.addAll(wanted.values());
+            }
+            unchangedChunks.increment(wanted.size() - toAdd.size());
+
+            if (toAdd.isEmpty() && toDelete.isEmpty()) {
+                log.info("RAG documents unchanged ({} chunks), nothing to ingest.", wanted.size());
+                return;
+            }
+
+            pendingChunks.set(toAdd.size() + toDelete.size());
+            // new chunks first, so retrieval never sees the documents missing
+            for (int from = 0; from < toAdd.size(); from += batchSize) {
+                List<Document> batch = toAdd.subList(from, Math.min(from + batchSize, toAdd.size()));
+                vectorStore.add(batch);
+                addedChunks.increment(batch.size());
+                pendingChunks.addAndGet(-batch.size());
+            }
+            for (int from = 0; from < toDelete.size(); from += batchSize) {
+                List<String> batch = toDelete.subList(from, Math.min(from + batchSize, toDelete.size()));
+                vectorStore.delete(batch);
+                deletedChunks.increment(batch.size());
+                pendingChunks.addAndGet(-batch.size());
+            }
+            log.info("RAG documents ingested: {} chunks added, {} deleted, {} unchanged",
+                    toAdd.size(), toDelete.size(), wanted.size() - toAdd.size());
+        } finally {
+            pendingChunks.set(0);
+            running.set(0);
+            sample.stop(duration);
+        }
+    }
+
+    // hash -> chunk, for every document of the directory
+    private Map<String, Document> readChunks() throws IOException {
         TextSplitter textSplitter = new TokenTextSplitter();
+        Map<String, Document> chunks = new LinkedHashMap<>();
+
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(documentsLocation);
+        for (Resource resource : resources) {
+            String source = resource.getFilename();
+            for (Document chunk : textSplitter.apply(new TextReader(resource).get())) {
+                String hash = hash(source + "\n" + chunk.getText());
 
-        vectorStore.accept(textSplitter.apply(textReader.get()));
-        log.info("SQL Governance Rules ingested into VectorStore!");
+                Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+                // tells the rules apart from the schema documents stored next to them
+                metadata.put("kind", kind);
+                metadata.put(SOURCE_KEY, source);
+                metadata.put(HASH_KEY, hash);
+                chunks.putIfAbsent(hash, Document.builder()
+                        .id(UUID.nameUUIDFromBytes(hash.getBytes(StandardCharsets.UTF_8)).toString())
+                        .text(chunk.getText())
+                        .metadata(metadata)
+                        .build());
+            }
+        }
+        log.info("Read {} chunks from {} documents in {}", chunks.size(), resources.length, documentsLocation);
+        return chunks;
+    }
+
+    // hash -> document id of the chunks already stored, read from the in-memory store or straight from the pgvector table
+    private Optional<Map<String, String>> storedHashes() {
+        Map<String, String> hashes = new HashMap<>();
+        if (vectorStore instanceof InMemoryVectorStore inMemory) {
+            inMemory.documents(new FilterExpressionBuilder().eq("kind", kind).build())
+                    .forEach(document -> hashes.put(storedHash(document), document.getId()));
+            return Optional.of(hashes);
+        }
+
+        Optional<JdbcTemplate> jdbcTemplate = vectorStore.getNativeClient();
+        if (jdbcTemplate.isEmpty()) {
+            return Optional.empty();
+        }
+        jdbcTemplate.get().query(
+                "SELECT id::text, metadata->>'" + HASH_KEY + "' FROM vector_store WHERE metadata->>'kind' = ?",
+                rs -> {
+                    String hash = rs.getString(2);
+                    // chunks from before the hashes were stored count as stale
+                    hashes.put(hash != null ? hash : "legacy-" + rs.getString(1), rs.getString(1));
+                },
+                kind);
+        return Optional.of(hashes);
+    }
+
+    // chunks from before the hashes were stored count as stale
+    private static String storedHash(Document document) {
+        Object hash = document.getMetadata().get(HASH_KEY);
+        return hash != null ? hash.toString() : "legacy-" + document.getId();
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -0,0 +1,200 @@
+package com.marouane.db_assistant.rag;
+
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.database.ForeignKeyInfo;
+import com.marouane.db_assistant.database.SchemaModel;
+import com.marouane.db_assistant.database.SchemaService;
+import com.marouane.db_assistant.database.TableInfo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Picks the part of a schema that is relevant to a question. Every table definition is embedded
+ * into the vector store (kind = schema, one namespace per schema fingerprint, so every connection to the
+ * same schema shares it); at generation time only the top-K most similar tables and their foreign key
+ * neighbours go into the prompt. Indexing runs in the background, until it is done the whole schema is used.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SchemaRetrievalService {
+    private final VectorStores vectorStores;
+    private final SchemaService schemaService;
+    // fingerprints whose tables are in the vector store
+    private final Set<String> indexedFingerprints = ConcurrentHashMap.newKeySet();
+    private final Set<String> indexing = ConcurrentHashMap.newKeySet();
+    // connection id -> fingerprint it was last seen with, to drop an index nobody uses any more
+    private final Map<Integer, String> connectionFingerprints = new ConcurrentHashMap<>();
+
+    @Value("${application.rag.schema.top-k}")
+    private int topK;
+
+    @Value("${application.rag.schema.full-schema-max-tables}")
+    private int fullSchemaMaxTables;
+
+    public String schemaContext(SchemaModel schema, String question) {
+        // small schemas fit the prompt as they are, retrieval would only cost an embedding call
+        if (schema.getTables().size() <= fullSchemaMaxTables) {
+            return schema.getPromptText();
+        }
+        track(schema);
+        if (!indexedFingerprints.contains(schema.getFingerprint())) {
+            indexInBackground(schema);
+            return schema.getPromptText();
+        }
+
+        List<Document> hits = vectorStore().similaritySearch(SearchRequest.builder()
+                .query(question)
+                .topK(topK)
+                .filterExpression(namespace(schema.getFingerprint()))
+                .build());
+        if (hits.isEmpty()) {
+            return schema.getPromptText();
+        }
+
+        Set<String> selected = hits.stream()
+                .map(hit -> (String) hit.getMetadata().get("table"))
+                .collect(Collectors.toCollection(HashSet::new));
+        addForeignKeyNeighbours(schema, selected);
+
+        StringBuilder context = new StringBuilder("Database schema (tables relevant to the question):\n");
+        schema.getTables().stream()
+                .filter(table -> selected.contains(table.qualifiedName()))
+                .forEach(table -> context.append(table.render()));
+        return context.toString();
+    }
+
+    // Tables referenced by a selected table, and tables referencing one, are needed to write the joins
+    private void addForeignKeyNeighbours(SchemaModel schema, Set<String> selected) {
+        Map<String, TableInfo> byName = schema.getTables().stream()
+                .collect(Collectors.toMap(TableInfo::qualifiedName, Function.identity(), (a, b) -> a));
+        Set<String> neighbours = new HashSet<>();
+        for (TableInfo table : schema.getTables()) {
+            for (ForeignKeyInfo foreignKey : table.foreignKeys()) {
+                String referenced = foreignKey.referencedQualifiedName();
+                if (selected.contains(table.qualifiedName()) && byName.containsKey(referenced)) {
+                    neighbours.add(referenced);
+                } else if (selected.contains(referenced)) {
+                    neighbours.add(table.qualifiedName());
+                }
+            }
+        }
+        selected.addAll(neighbours);
+    }
+
+    /**
+     * Starts indexing the schema of a connection that was just activated, so the first question finds it ready.
+     */
+    public void prepare(DatabaseConnection connection, DataSource dataSource) {
+        Thread.ofVirtual().name("schema-index-" + connection.getId()).start(() -> {
+            try {
+                SchemaModel schema = schemaService.getSchema(connection, dataSource);
+                if (schema.getTables().size() > fullSchemaMaxTables) {
+                    track(schema);
+                    indexInBackground(schema);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not prepare the schema index of connection {}: {}", connection.getId(), e.getMessage());
+            }
+        });
+    }
+
+    // one indexing per fingerprint at a time, the questions meanwhile use the whole schema
+    private void indexInBackground(SchemaModel schema) {
+        String fingerprint = schema.getFingerprint();
+        if (indexedFingerprints.contains(fingerprint) || !indexing.add(fingerprint)) {
+            return;
+        }
+        Thread.ofVirtual().name("schema-index").start(() -> {
+            try {
+                if (!isInStore(fingerprint)) {
+                    index(schema);
+                }
+                indexedFingerprints.add(fingerprint);
+            } catch (RuntimeException e) {
+                // retried by the next question
+                log.warn("Indexing schema {} failed: {}", fingerprint, e.getMessage());
+            } finally {
+                indexing.remove(fingerprint);
+            }
+        });
+    }
+
+    // After a restart the tables may already be embedded for this exact schema version
+    private boolean isInStore(String fingerprint) {
+        return !vectorStore().similaritySearch(SearchRequest.builder()
+                .query("schema")
+                .topK(1)
+                .filterExpression(namespace(fingerprint))
+                .build()).isEmpty();
+    }
+
+    private void index(SchemaModel schema) {
+        String fingerprint = schema.getFingerprint();
+        log.info("Indexing {} tables of schema {}", schema.getTables().size(), fingerprint);
+
+        List<Document> documents = schema.getTables().stream()
+                .map(table -> Document.builder()
+                        .id(documentId(fingerprint, table))
+                        .text(table.render())
+                        .metadata(Map.of(
+                                "kind", "schema",
+                                "table", table.qualifiedName(),
+                                "schemaFingerprint", fingerprint
+                        ))
+                        .build())
+                .toList();
+        vectorStore().add(documents);
+    }
+
+    // remembers which schema the connection is on, the index of the one it left goes if nobody else uses it
+    private void track(SchemaModel schema) {
+        String previous = connectionFingerprints.put(schema.getConnectionId(), schema.getFingerprint());
+        if (previous != null && !previous.equals(schema.getFingerprint())) {
+            dropIfUnused(previous);
+        }
+    }
+
+    public void invalidate(Integer connectionId) {
+        String fingerprint = connectionFingerprints.remove(connectionId);
+        if (fingerprint != null) {
+            dropIfUnused(fingerprint);
+        }
+    }
+
+    private void dropIfUnused(String fingerprint) {
+        if (!connectionFingerprints.containsValue(fingerprint)) {
+            indexedFingerprints.remove(fingerprint);
+            vectorStore().delete(namespace(fingerprint));
+        }
+    }
+
+    private String namespace(String fingerprint) {
+        return "kind == 'schema' && schemaFingerprint == '" + fingerprint + "'";
+    }
+
+    private String documentId(String fingerprint, TableInfo table) {
+        return UUID.nameUUIDFromBytes(("schema:" + fingerprint + ":" + table.qualifiedName())
+                .getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private VectorStore vectorStore() {
+        return vectorStores.forNamespace(VectorStores.SCHEMA);
+    }
+}
@@ -0,0 +1,67 @@
+package com.marouane.db_assistant.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the vector store of each document namespace (governance, schema, sql-cache), as configured in
+ * application.rag.vector-store.namespaces: "memory" for an {@link InMemoryVectorStore} snapshotted
+ * under the snapshot directory, anything else for the shared pgvector store.
+ */
+@Component
+public class VectorStores {
+    public static final String GOVERNANCE = "governance";
+    public static final String SCHEMA = "schema";
+    public static final String SQL_CACHE = "sql-cache";
+
+    private final VectorStore pgVectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final Map<String, String> namespaces;
+    private final Path snapshotDirectory;
+    private final int embeddingBatchSize;
+    private final Map<String, InMemoryVectorStore> inMemoryStores = new ConcurrentHashMap<>();
+
+    public VectorStores(
+            VectorStore pgVectorStore,
+            EmbeddingModel embeddingModel,
+            ObjectMapper objectMapper,
+            @Value("#{${application.rag.vector-store.namespaces}}") Map<String, String> namespaces,
+            @Value("${application.rag.vector-store.snapshot-dir}") String snapshotDirectory,
+            @Value("${application.rag.ingestion.batch-size}") int embeddingBatchSize) {
+        this.pgVectorStore = pgVectorStore;
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.namespaces = namespaces;
+        this.snapshotDirectory = Path.of(snapshotDirectory);
+        this.embeddingBatchSize = embeddingBatchSize;
+    }
+
+    public VectorStore forNamespace(String namespace) {
+        if (!"memory".equalsIgnoreCase(namespaces.get(namespace))) {
+            return pgVectorStore;
+        }
+        return inMemoryStores.computeIfAbsent(namespace, ns -> new InMemoryVectorStore(
+                ns, embeddingModel, objectMapper, snapshotDirectory.resolve(ns + ".json"), embeddingBatchSize));
+    }
+
+    @Scheduled(fixedDelayString = "${application.rag.vector-store.snapshot-interval}")
+    public void snapshot() {
+        List.copyOf(inMemoryStores.values()).forEach(InMemoryVectorStore::snapshotIfDirty);
+    }
+
+    @PreDestroy
+    public void snapshotOnShutdown() {
+        snapshot();
+    }
+}
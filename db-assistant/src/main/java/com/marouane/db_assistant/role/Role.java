@@ -2,6 +2,7 @@ package com.marouane.db_assistant.role;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.marouane.db_assistant.user.User;
+import com.marouane.db_assistant.security.UserCacheEvictionListener;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -13,6 +14,7 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
+@EntityListeners(UserCacheEvictionListener.class)
 public class Role {
     @Id
     @GeneratedValue
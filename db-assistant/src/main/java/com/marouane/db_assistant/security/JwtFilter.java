@@ -1,27 +1,35 @@
 package com.marouane.db_assistant.security;
 
+import com.marouane.db_assistant.role.Role;
+import com.marouane.db_assistant.user.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
 @Service
 @RequiredArgsConstructor
 public class JwtFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
-    private final UserDetailsService userDetailsService;
+    private final UserCache userCache;
+
+    @Value("${application.security.stateless-principal}")
+    private boolean statelessPrincipal;
 
     @Override
     protected void doFilterInternal(
@@ -43,10 +51,20 @@ public class JwtFilter extends OncePerRequestFilter {
         }
 
         jwt = authHeader.substring(7);
-        userEmail = jwtService.extractUsername(jwt);
+        // verified once here, the claims are reused below
+        final Claims claims;
+        try {
+            claims = jwtService.parseClaims(jwt);
+        } catch (JwtException e) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        userEmail = claims.getSubject();
         if(userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null){
-            UserDetails userDetails = userDetailsService.loadUserByUsername(userEmail);
-            if(jwtService.isTokenValid(jwt, userDetails)){
+            UserDetails userDetails = statelessPrincipal && claims.get("userId") != null
+                    ? principalFromClaims(claims)
+                    : userCache.get(userEmail);
+            if(jwtService.isTokenValid(claims, userDetails)){
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                         userDetails, null, userDetails.getAuthorities()
                 );
@@ -60,4 +78,17 @@ public class JwtFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
 
     }
+
+    // The signed token already says who the user is and what they may do, no need to ask the database
+    @SuppressWarnings("unchecked")
+    private User principalFromClaims(Claims claims) {
+        List<String> authorities = claims.get("authorities", List.class);
+        return User.builder()
+                .id(claims.get("userId", Integer.class))
+                .email(claims.getSubject())
+                .roles(authorities.stream()
+                        .map(authority -> Role.builder().name(authority).build())
+                        .toList())
+                .build();
+    }
 }
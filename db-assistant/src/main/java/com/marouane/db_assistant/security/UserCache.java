@@ -0,0 +1,66 @@
+package com.marouane.db_assistant.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.marouane.db_assistant.user.User;
+import com.marouane.db_assistant.user.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of users (with their roles) by email, for requests that need the full entity.
+ * Entries expire after the TTL and are evicted as soon as the user or a role changes,
+ * see {@link UserCacheEvictionListener}.
+ */
+@Component
+public class UserCache {
+    private final UserRepository userRepository;
+    private final Cache<String, User> users;
+    private final AtomicLong evictions = new AtomicLong();
+
+    public UserCache(
+            UserRepository userRepository,
+            @Value("${application.security.user-cache.max-size}") long maxSize,
+            @Value("${application.security.user-cache.ttl}") long ttl
+    ) {
+        this.userRepository = userRepository;
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttl))
+                .build();
+    }
+
+    /**
+     * Loads outside of the cache: Caffeine runs a loader inside a synchronized map bin, which would pin
+     * the virtual thread for the whole query. Two concurrent misses may both query, the last one wins.
+     */
+    public User get(String email) {
+        User cached = users.getIfPresent(email);
+        if (cached != null) {
+            return cached;
+        }
+        long evictionsBefore = evictions.get();
+        User user = userRepository.findByEmail(email)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+        // an eviction during the query may concern the row just read, so it is not cached
+        if (evictions.get() == evictionsBefore) {
+            users.put(email, user);
+        }
+        return user;
+    }
+
+    // by id, the email itself may be what changed
+    public void evict(Integer userId) {
+        evictions.incrementAndGet();
+        users.asMap().values().removeIf(user -> user.getId().equals(userId));
+    }
+
+    public void evictAll() {
+        evictions.incrementAndGet();
+        users.invalidateAll();
+    }
+}
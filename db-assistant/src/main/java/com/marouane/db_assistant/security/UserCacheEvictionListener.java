@@ -0,0 +1,30 @@
+package com.marouane.db_assistant.security;
+
+import com.marouane.db_assistant.role.Role;
+import com.marouane.db_assistant.user.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Keeps {@link UserCache} in line with password, email and role changes.
+ * The cache is looked up lazily since listeners are created with the entity manager factory.
+ */
+public class UserCacheEvictionListener {
+    private final ObjectProvider<UserCache> userCache;
+
+    public UserCacheEvictionListener(ObjectProvider<UserCache> userCache) {
+        this.userCache = userCache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        if (entity instanceof User user) {
+            userCache.ifAvailable(cache -> cache.evict(user.getId()));
+        } else if (entity instanceof Role) {
+            // a renamed role changes the authorities of every user holding it
+            userCache.ifAvailable(UserCache::evictAll);
+        }
+    }
+}
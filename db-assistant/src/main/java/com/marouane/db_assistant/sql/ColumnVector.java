@@ -0,0 +1,138 @@
+package com.marouane.db_assistant.sql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Values of a single result column. Integral and floating point JDBC types are kept in primitive
+ * arrays with a null bitmap, every other type falls back to plain objects.
+ */
+abstract class ColumnVector {
+    private static final int INITIAL_CAPACITY = 64;
+
+    protected final BitSet nulls = new BitSet();
+
+    static ColumnVector forJdbcType(int jdbcType) {
+        return switch (jdbcType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> new LongVector();
+            case Types.REAL, Types.FLOAT, Types.DOUBLE -> new DoubleVector();
+            default -> new ObjectVector();
+        };
+    }
+
+    abstract String type();
+
+    abstract void read(ResultSet rs, int column, int row) throws SQLException;
+
+    abstract Object get(int row);
+
+    abstract void write(JsonGenerator json, int row) throws IOException;
+
+    boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    static final class LongVector extends ColumnVector {
+        private long[] values = new long[INITIAL_CAPACITY];
+
+        @Override
+        String type() {
+            return "long";
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getLong(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void write(JsonGenerator json, int row) throws IOException {
+            if (isNull(row)) {
+                json.writeNull();
+            } else {
+                json.writeNumber(values[row]);
+            }
+        }
+    }
+
+    static final class DoubleVector extends ColumnVector {
+        private double[] values = new double[INITIAL_CAPACITY];
+
+        @Override
+        String type() {
+            return "double";
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getDouble(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void write(JsonGenerator json, int row) throws IOException {
+            if (isNull(row)) {
+                json.writeNull();
+            } else {
+                json.writeNumber(values[row]);
+            }
+        }
+    }
+
+    static final class ObjectVector extends ColumnVector {
+        private final List<Object> values = new ArrayList<>(INITIAL_CAPACITY);
+
+        @Override
+        String type() {
+            return "object";
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            Object value = rs.getObject(column);
+            if (value == null) {
+                nulls.set(row);
+            }
+            values.add(value);
+        }
+
+        @Override
+        Object get(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        void write(JsonGenerator json, int row) throws IOException {
+            json.writeObject(values.get(row));
+        }
+    }
+}
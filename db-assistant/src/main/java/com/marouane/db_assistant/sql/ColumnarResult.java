@@ -0,0 +1,57 @@
+package com.marouane.db_assistant.sql;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Getter;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column oriented result set: the column names are stored once and the values of each column
+ * live in a single {@link ColumnVector} instead of one map per row.
+ */
+@JsonSerialize(using = ColumnarResultSerializer.class)
+public class ColumnarResult {
+    @Getter
+    private final List<String> columns;
+    private final ColumnVector[] vectors;
+    @Getter
+    private int rowCount;
+
+    private ColumnarResult(List<String> columns, ColumnVector[] vectors) {
+        this.columns = columns;
+        this.vectors = vectors;
+    }
+
+    public static ColumnarResult read(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+
+        List<String> columns = new ArrayList<>(columnCount);
+        ColumnVector[] vectors = new ColumnVector[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            columns.add(metaData.getColumnName(i));
+            vectors[i - 1] = ColumnVector.forJdbcType(metaData.getColumnType(i));
+        }
+
+        ColumnarResult result = new ColumnarResult(columns, vectors);
+        while (rs.next()) {
+            for (int i = 1; i <= columnCount; i++) {
+                vectors[i - 1].read(rs, i, result.rowCount);
+            }
+            result.rowCount++;
+        }
+        return result;
+    }
+
+    public Object getValue(int column, int row) {
+        return vectors[column].get(row);
+    }
+
+    ColumnVector[] getVectors() {
+        return vectors;
+    }
+}
@@ -0,0 +1,53 @@
+package com.marouane.db_assistant.sql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link ColumnarResult} straight from its column vectors:
+ * {"columns": [...], "types": [...], "rowCount": n, "values": [[column 1], [column 2], ...]}.
+ * Null cells are written as JSON null.
+ */
+public class ColumnarResultSerializer extends StdSerializer<ColumnarResult> {
+
+    public ColumnarResultSerializer() {
+        super(ColumnarResult.class);
+    }
+
+    @Override
+    public void serialize(ColumnarResult result, JsonGenerator json, SerializerProvider provider) throws IOException {
+        ColumnVector[] vectors = result.getVectors();
+        int rowCount = result.getRowCount();
+
+        json.writeStartObject();
+
+        json.writeArrayFieldStart("columns");
+        for (String column : result.getColumns()) {
+            json.writeString(column);
+        }
+        json.writeEndArray();
+
+        json.writeArrayFieldStart("types");
+        for (ColumnVector vector : vectors) {
+            json.writeString(vector.type());
+        }
+        json.writeEndArray();
+
+        json.writeNumberField("rowCount", rowCount);
+
+        json.writeArrayFieldStart("values");
+        for (ColumnVector vector : vectors) {
+            json.writeStartArray();
+            for (int row = 0; row < rowCount; row++) {
+                vector.write(json, row);
+            }
+            json.writeEndArray();
+        }
+        json.writeEndArray();
+
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,164 @@
+package com.marouane.db_assistant.sql;
+
+import com.marouane.db_assistant.database.ConnectionManager;
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.user.User;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Page-by-page execution of SELECT queries. The first page opens a {@link QueryCursor} and returns
+ * its id as continuation token, following pages keep reading from the same result set.
+ * Idle cursors give their pooled connection back; an ordered query then resumes by re-execution from the
+ * last offset, any other cursor expires and the query has to be run again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PaginatedQueryService {
+    private final Map<String, QueryCursor> cursors = new ConcurrentHashMap<>();
+    private final ConnectionManager connectionManager;
+    private final QueryHistoryService queryHistoryService;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final SqlExecutionService sqlExecutionService;
+
+    @Value("${application.sql.cursor.default-page-size}")
+    private int defaultPageSize;
+
+    @Value("${application.sql.cursor.max-page-size}")
+    private int maxPageSize;
+
+    @Value("${application.sql.cursor.max-open-per-user}")
+    private int maxOpenPerUser;
+
+    @Value("${application.sql.cursor.idle-timeout}")
+    private long idleTimeout;
+
+    @Value("${application.sql.cursor.retention}")
+    private long retention;
+
+    public QueryPageDto firstPage(Authentication connectedUser, String sql, Integer pageSize) throws SQLException {
+        User user = (User) connectedUser.getPrincipal();
+        SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+        if (!analysis.readOnly()) {
+            return new QueryPageDto(false, "Only SELECT queries can be paginated");
+        }
+
+        DataSource dataSource = connectionManager.getActiveDataSource(user.getId());
+        DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
+
+        releaseOldestIfAtLimit(user.getId());
+
+        QueryCursor cursor = new QueryCursor(
+                UUID.randomUUID().toString(),
+                user.getId(),
+                activeConnection.getId(),
+                SqlExecutionService.normalize(sql),
+                "mysql".equalsIgnoreCase(activeConnection.getDbType()),
+                resolvePageSize(pageSize),
+                sqlExecutionService.queryTimeout(activeConnection),
+                analysis.isOrdered()
+        );
+        QueryPageDto page = cursor.nextPage(dataSource);
+        queryHistoryService.logQuery(user, activeConnection, sql, analysis);
+
+        if (page.isHasMore()) {
+            cursors.put(cursor.getId(), cursor);
+        }
+        return page;
+    }
+
+    public QueryPageDto nextPage(Authentication connectedUser, String token) throws SQLException {
+        User user = (User) connectedUser.getPrincipal();
+        QueryCursor cursor = cursors.get(token);
+        if (cursor == null || !cursor.getUserId().equals(user.getId())) {
+            return new QueryPageDto(false, "Unknown or expired continuation token");
+        }
+
+        // the cursor may only be resumed against the connection it was opened on
+        DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
+        if (!activeConnection.getId().equals(cursor.getConnectionId())) {
+            close(connectedUser, token);
+            return new QueryPageDto(false, "The active database connection changed, run the query again");
+        }
+
+        if (!cursor.isAttached()) {
+            releaseOldestIfAtLimit(user.getId());
+        }
+        QueryPageDto page;
+        try {
+            page = cursor.nextPage(connectionManager.getActiveDataSource(user.getId()));
+        } catch (SQLException e) {
+            cursors.remove(token);
+            throw e;
+        }
+        if (!page.isHasMore()) {
+            cursors.remove(token);
+        }
+        return page;
+    }
+
+    public void close(Authentication connectedUser, String token) {
+        User user = (User) connectedUser.getPrincipal();
+        QueryCursor cursor = cursors.get(token);
+        if (cursor != null && cursor.getUserId().equals(user.getId())) {
+            cursors.remove(token);
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gives the connections of idle cursors back to the pool, and forgets cursors
+     * that have not been read for longer than the retention period.
+     */
+    @Scheduled(fixedDelayString = "${application.sql.cursor.eviction-interval}")
+    public void evictIdleCursors() {
+        long now = System.currentTimeMillis();
+        cursors.values().forEach(cursor -> {
+            long idle = now - cursor.getLastAccess();
+            if (idle > retention) {
+                if (cursor.tryDetach()) {
+                    cursors.remove(cursor.getId());
+                }
+            } else if (idle > idleTimeout && cursor.isAttached()) {
+                cursor.tryDetach();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        cursors.values().forEach(QueryCursor::close);
+        cursors.clear();
+    }
+
+    // A user keeps at most maxOpenPerUser connections pinned, the least recently read cursor is detached first
+    private void releaseOldestIfAtLimit(Integer userId) {
+        var attached = cursors.values().stream()
+                .filter(cursor -> cursor.getUserId().equals(userId) && cursor.isAttached())
+                .sorted(Comparator.comparingLong(QueryCursor::getLastAccess))
+                .toList();
+        for (int i = 0; i <= attached.size() - maxOpenPerUser; i++) {
+            attached.get(i).tryDetach();
+        }
+    }
+
+    private int resolvePageSize(Integer pageSize) {
+        if (pageSize == null || pageSize <= 0) {
+            return defaultPageSize;
+        }
+        return Math.min(pageSize, maxPageSize);
+    }
+}
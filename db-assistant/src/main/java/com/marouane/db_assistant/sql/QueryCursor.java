@@ -0,0 +1,203 @@
+package com.marouane.db_assistant.sql;
+
+import lombok.Getter;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A SELECT held open on the target database between page requests.
+ * While attached it owns a pooled connection and an open result set. Once detached
+ * only the query and the current offset are kept: an ordered query is re-executed
+ * starting at that offset, any other expires, since nothing guarantees its rows come
+ * back in the same order.
+ */
+class QueryCursor {
+    @Getter
+    private final String id;
+    @Getter
+    private final Integer userId;
+    @Getter
+    private final Integer connectionId;
+    private final String sql;
+    private final boolean mysql;
+    @Getter
+    private final int pageSize;
+    private final int queryTimeoutSeconds;
+    // the query has an ORDER BY, re-executing it from the offset neither skips nor repeats rows
+    private final boolean resumable;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Connection connection;
+    private Statement statement;
+    // read by the eviction task without the lock
+    private volatile ResultSet resultSet;
+    private List<String> columns;
+    private Map<String, Object> lookahead;
+    @Getter
+    private long offset;
+    @Getter
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    QueryCursor(String id, Integer userId, Integer connectionId, String sql, boolean mysql, int pageSize,
+                int queryTimeoutSeconds, boolean resumable) {
+        this.id = id;
+        this.userId = userId;
+        this.connectionId = connectionId;
+        this.sql = sql;
+        this.mysql = mysql;
+        this.pageSize = pageSize;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.resumable = resumable;
+    }
+
+    /**
+     * Reads the next page, re-executing the query from the current offset when the cursor was detached.
+     * A detached cursor over an unordered query returns an error page instead.
+     */
+    QueryPageDto nextPage(DataSource dataSource) throws SQLException {
+        lock.lock();
+        try {
+            lastAccess = System.currentTimeMillis();
+            if (resultSet == null) {
+                if (offset > 0 && !resumable) {
+                    return new QueryPageDto(false,
+                            "The result was released while idle and the query has no ORDER BY to resume it from, run the query again");
+                }
+                attach(dataSource);
+            }
+
+            long pageOffset = offset;
+            List<Map<String, Object>> rows = new ArrayList<>(pageSize);
+            if (lookahead != null) {
+                rows.add(lookahead);
+                lookahead = null;
+            }
+            while (rows.size() < pageSize && resultSet.next()) {
+                rows.add(readRow());
+            }
+            offset += rows.size();
+
+            // read one row ahead to know whether another page exists
+            boolean hasMore = resultSet.next();
+            if (hasMore) {
+                lookahead = readRow();
+            } else {
+                detach(true);
+            }
+            return new QueryPageDto(rows, columns, pageOffset, hasMore, hasMore ? id : null);
+        } catch (SQLException e) {
+            detach(false);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void attach(DataSource dataSource) throws SQLException {
+        connection = dataSource.getConnection();
+        try {
+            // PostgreSQL only keeps a server-side cursor outside of autocommit mode
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+
+            // a plain statement: the user's SQL has no parameters and may contain jsonb ? operators
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(mysql ? Integer.MIN_VALUE : pageSize + 1);
+            statement.setQueryTimeout(queryTimeoutSeconds);
+            resultSet = statement.executeQuery(offset == 0 ? sql : resumeSql());
+
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            columns = new ArrayList<>(metaData.getColumnCount());
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnName(i));
+            }
+        } catch (SQLException e) {
+            detach(false);
+            throw e;
+        }
+    }
+
+    // Skips the rows already delivered inside the database instead of reading them again, the ORDER BY keeps them the same rows
+    private String resumeSql() {
+        return mysql
+                ? "SELECT * FROM (" + sql + ") AS page_source LIMIT 18446744073709551615 OFFSET " + offset
+                : "SELECT * FROM (" + sql + ") AS page_source OFFSET " + offset;
+    }
+
+    private Map<String, Object> readRow() throws SQLException {
+        Map<String, Object> row = HashMap.newHashMap(columns.size());
+        for (int i = 1; i <= columns.size(); i++) {
+            row.put(columns.get(i - 1), resultSet.getObject(i));
+        }
+        return row;
+    }
+
+    boolean isAttached() {
+        return resultSet != null;
+    }
+
+    /**
+     * Releases the pooled connection if the cursor is not being read right now.
+     */
+    boolean tryDetach() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            detach(false);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            detach(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void detach(boolean drained) {
+        // the buffered row is not counted in the offset, re-execution reads it again
+        lookahead = null;
+        if (mysql && !drained && statement != null) {
+            // closing a MySQL streaming result set reads every remaining row first, stop the query instead
+            try {
+                statement.cancel();
+            } catch (SQLException ignored) {
+                // the close below still releases the connection, only slower
+            }
+        }
+        closeQuietly(resultSet);
+        closeQuietly(statement);
+        // Hikari rolls back the open read-only transaction when the connection returns to the pool
+        closeQuietly(connection);
+        resultSet = null;
+        statement = null;
+        connection = null;
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception ignored) {
+            // nothing left to do with a resource that failed to close
+        }
+    }
+}
@@ -12,7 +12,10 @@ import lombok.Setter;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "query_history")
+@Table(
+        name = "query_history",
+        indexes = @Index(name = "idx_query_history_user_connection_time", columnList = "user_id, connection_id, query_time")
+)
 @Getter
 @Setter
 @AllArgsConstructor
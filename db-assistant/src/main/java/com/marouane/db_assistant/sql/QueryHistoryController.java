@@ -1,5 +1,6 @@
 package com.marouane.db_assistant.sql;
 
+import com.marouane.db_assistant.common.PageResponse;
 import com.marouane.db_assistant.database.DatabaseConnection;
 import com.marouane.db_assistant.user.User;
 import io.swagger.v3.oas.annotations.Operation;
@@ -10,6 +11,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -40,6 +42,45 @@ public class QueryHistoryController {
         }
     }
 
+    @GetMapping(value = "/page", produces = "application/json")
+    @Operation(
+            summary = "Get one page of query execution history",
+            description = "Keyset-paginated history of the active connection, newest first. " +
+                    "Pass the returned before cursor to load older entries, or the after cursor to load newer ones."
+    )
+    public ResponseEntity<PageResponse<QueryHistoryResponseDto>> queryHistoryPage(
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer size,
+            Authentication connectedUser
+    ){
+        try{
+            return ResponseEntity.ok(queryHistoryService.getQueryHistoryPage(connectedUser, before, after, size));
+        }catch(IllegalStateException | IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
+        }catch (Exception e){
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping(value = "/daily", produces = "application/json")
+    @Operation(
+            summary = "Get daily query counts",
+            description = "Number of queries per day and query type on the active connection, " +
+                    "for history older than the retention period."
+    )
+    public ResponseEntity<List<QueryHistoryDailyDto>> dailyHistory(
+            Authentication connectedUser
+    ){
+        try{
+            return ResponseEntity.ok(queryHistoryService.getDailyHistory(connectedUser));
+        }catch(IllegalStateException  e){
+            return ResponseEntity.badRequest().body(List.of());
+        }catch (Exception e){
+            return ResponseEntity.internalServerError().body(List.of());
+        }
+    }
+
     private boolean isConnectionOwnedByUser(DatabaseConnection connection, User user) {
         return connection.getUser() != null && connection.getUser().getId().equals(user.getId());
     }
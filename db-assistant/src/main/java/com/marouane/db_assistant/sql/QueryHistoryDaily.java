@@ -0,0 +1,48 @@
+package com.marouane.db_assistant.sql;
+
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.user.User;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+/**
+ * Number of queries of one type a user ran on a connection on a given day.
+ * Query history older than the retention period is compacted into these rows.
+ */
+@Entity
+@Table(
+        name = "query_history_daily",
+        uniqueConstraints = @UniqueConstraint(
+                name = "uk_query_history_daily",
+                columnNames = {"user_id", "connection_id", "rollup_day", "query_type"}
+        )
+)
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueryHistoryDaily {
+    // identity so the rollup can insert with plain SQL
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    private User user;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    private DatabaseConnection connection;
+
+    @Column(name = "rollup_day")
+    private LocalDate day;
+
+    @Enumerated(EnumType.STRING)
+    private QueryType queryType;
+
+    private long queryCount;
+}
@@ -0,0 +1,18 @@
+package com.marouane.db_assistant.sql;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueryHistoryDailyDto {
+    private LocalDate day;
+    private QueryType queryType;
+    private long queryCount;
+}
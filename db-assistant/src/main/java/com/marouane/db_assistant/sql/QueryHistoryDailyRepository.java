@@ -0,0 +1,37 @@
+package com.marouane.db_assistant.sql;
+
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.user.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface QueryHistoryDailyRepository extends JpaRepository<QueryHistoryDaily, Integer> {
+
+    List<QueryHistoryDaily> findByUserAndConnectionOrderByDayDesc(User user, DatabaseConnection connection);
+
+    // Adds the counts of the history rows in [from, to) to their daily rows
+    @Modifying
+    @Query(value = """
+            INSERT INTO query_history_daily (user_id, connection_id, rollup_day, query_type, query_count)
+            SELECT user_id, connection_id, CAST(query_time AS date), query_type, COUNT(*)
+            FROM query_history
+            WHERE query_time >= :from AND query_time < :to
+            GROUP BY user_id, connection_id, CAST(query_time AS date), query_type
+            ON CONFLICT (user_id, connection_id, rollup_day, query_type)
+            DO UPDATE SET query_count = query_history_daily.query_count + EXCLUDED.query_count
+            """, nativeQuery = true)
+    int rollUpBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Transactional
+    @Modifying
+    @Query("delete from QueryHistoryDaily d where d.connection = :connection")
+    int deleteByConnection(@Param("connection") DatabaseConnection connection);
+}
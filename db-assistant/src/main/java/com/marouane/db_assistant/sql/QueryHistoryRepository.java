@@ -2,13 +2,65 @@ package com.marouane.db_assistant.sql;
 
 import com.marouane.db_assistant.database.DatabaseConnection;
 import com.marouane.db_assistant.user.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface QueryHistoryRepository extends JpaRepository<QueryHistory, Integer> {
 
     List<QueryHistory> findByUserAndConnectionOrderByQueryTimeDesc(User user, DatabaseConnection connection);
+
+    // Projections below read the connection name in the same query instead of one lazy load per row
+
+    @Query("""
+            select new com.marouane.db_assistant.sql.QueryHistoryResponseDto(h.id, h.query, h.queryTime, h.queryType, c.name)
+            from QueryHistory h join h.connection c
+            where h.user = :user and c = :connection
+            order by h.queryTime desc, h.id desc
+            """)
+    List<QueryHistoryResponseDto> findLatest(@Param("user") User user, @Param("connection") DatabaseConnection connection, Limit limit);
+
+    @Query("""
+            select new com.marouane.db_assistant.sql.QueryHistoryResponseDto(h.id, h.query, h.queryTime, h.queryType, c.name)
+            from QueryHistory h join h.connection c
+            where h.user = :user and c = :connection
+              and (h.queryTime < :time or (h.queryTime = :time and h.id < :id))
+            order by h.queryTime desc, h.id desc
+            """)
+    List<QueryHistoryResponseDto> findBefore(@Param("user") User user, @Param("connection") DatabaseConnection connection,
+                                             @Param("time") LocalDateTime time, @Param("id") Integer id, Limit limit);
+
+    @Query("""
+            select new com.marouane.db_assistant.sql.QueryHistoryResponseDto(h.id, h.query, h.queryTime, h.queryType, c.name)
+            from QueryHistory h join h.connection c
+            where h.user = :user and c = :connection
+              and (h.queryTime > :time or (h.queryTime = :time and h.id > :id))
+            order by h.queryTime asc, h.id asc
+            """)
+    List<QueryHistoryResponseDto> findAfter(@Param("user") User user, @Param("connection") DatabaseConnection connection,
+                                            @Param("time") LocalDateTime time, @Param("id") Integer id, Limit limit);
+
+    @Query("select min(h.queryTime) from QueryHistory h where h.queryTime < :cutoff")
+    LocalDateTime findOldestBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying
+    @Query("delete from QueryHistory h where h.queryTime >= :from and h.queryTime < :to")
+    int deleteBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            DELETE FROM query_history WHERE id IN (
+                SELECT id FROM query_history WHERE connection_id = :connectionId LIMIT :chunkSize
+            )
+            """, nativeQuery = true)
+    int deleteChunkByConnection(@Param("connectionId") Integer connectionId, @Param("chunkSize") int chunkSize);
 }
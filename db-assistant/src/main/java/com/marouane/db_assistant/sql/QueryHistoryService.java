@@ -1,46 +1,106 @@
 package com.marouane.db_assistant.sql;
 
+import com.marouane.db_assistant.common.KeysetCursor;
+import com.marouane.db_assistant.common.KeysetPager;
+import com.marouane.db_assistant.common.PageResponse;
 import com.marouane.db_assistant.database.ConnectionManager;
 import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.persistence.WriteBehindPersister;
 import com.marouane.db_assistant.user.User;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class QueryHistoryService {
     private final QueryHistoryRepository queryHistoryRepository;
-    private final QueryHistoryMapper queryHistoryMapper;
     private final ConnectionManager connectionManager;
+    private final WriteBehindPersister writeBehindPersister;
+    private final QueryHistoryDailyRepository queryHistoryDailyRepository;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final TransactionTemplate transactionTemplate;
+    private final KeysetPager keysetPager;
+
+    @Value("${application.history.retention-days}")
+    private int retentionDays;
 
 
     public void logQuery(User user, DatabaseConnection connection, String query) {
+        logQuery(user, connection, query, sqlAnalyzer.analyze(query));
+    }
+
+    // for callers that already analyzed the statement
+    public void logQuery(User user, DatabaseConnection connection, String query, SqlAnalysis analysis) {
         QueryHistory history = new QueryHistory();
         history.setUser(user);
         history.setConnection(connection);
         history.setQuery(query);
-        history.setQueryType(detectQueryType(query));
-        queryHistoryRepository.save(history);
+        history.setQueryType(analysis.queryType());
+        writeBehindPersister.save(history);
     }
 
-    private QueryType detectQueryType(String sql) {
-        String firstWord = sql.trim().split("\\s+")[0].toUpperCase();
-        try {
-            return QueryType.valueOf(firstWord);
-        } catch (Exception e) {
-            return QueryType.OTHER;
-        }
+
+    public List<QueryHistoryResponseDto> getQueryHistory(Authentication connectedUser) {
+        User user = (User) connectedUser.getPrincipal();
+        DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
+        return queryHistoryRepository.findLatest(user, activeConnection, Limit.unlimited());
     }
 
+    /**
+     * Newest first. Without a cursor returns the latest page; {@code before} pages towards older
+     * entries and {@code after} towards newer ones.
+     */
+    public PageResponse<QueryHistoryResponseDto> getQueryHistoryPage(Authentication connectedUser, String before, String after, Integer size) {
+        User user = (User) connectedUser.getPrincipal();
+        DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
+        return keysetPager.page(before, after, size, false,
+                limit -> queryHistoryRepository.findLatest(user, activeConnection, limit),
+                (cursor, limit) -> queryHistoryRepository.findBefore(user, activeConnection, cursor.time(), cursor.id(), limit),
+                (cursor, limit) -> queryHistoryRepository.findAfter(user, activeConnection, cursor.time(), cursor.id(), limit),
+                history -> new KeysetCursor(history.getQueryTime(), history.getId()));
+    }
 
-    public List<QueryHistoryResponseDto> getQueryHistory(Authentication connectedUser) {
+    public List<QueryHistoryDailyDto> getDailyHistory(Authentication connectedUser) {
         User user = (User) connectedUser.getPrincipal();
         DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
-        List<QueryHistory> history = queryHistoryRepository.findByUserAndConnectionOrderByQueryTimeDesc(user, activeConnection);
-        return queryHistoryMapper.toResponseDtoList(history);
+        return queryHistoryDailyRepository.findByUserAndConnectionOrderByDayDesc(user, activeConnection).stream()
+                .map(daily -> new QueryHistoryDailyDto(daily.getDay(), daily.getQueryType(), daily.getQueryCount()))
+                .toList();
+    }
+
+    /**
+     * Compacts history older than the retention period into per day counts, then deletes it, one day
+     * at a time. Both statements of a day run in one transaction so a row is never counted twice or
+     * lost, and no transaction holds more than a day of rows.
+     */
+    @Scheduled(cron = "${application.history.rollup.cron}")
+    public void rollUpOldHistory() {
+        LocalDateTime cutoff = LocalDate.now().minusDays(retentionDays).atStartOfDay();
+        int groups = 0;
+        int deleted = 0;
+        LocalDateTime oldest;
+        while ((oldest = queryHistoryRepository.findOldestBefore(cutoff)) != null) {
+            LocalDateTime from = oldest.toLocalDate().atStartOfDay();
+            LocalDateTime to = from.plusDays(1).isAfter(cutoff) ? cutoff : from.plusDays(1);
+            int[] day = transactionTemplate.execute(status -> new int[] {
+                    queryHistoryDailyRepository.rollUpBetween(from, to),
+                    queryHistoryRepository.deleteBetween(from, to)
+            });
+            groups += day[0];
+            deleted += day[1];
+        }
+        log.info("Rolled up {} query history rows older than {} into {} daily groups", deleted, cutoff, groups);
     }
 }
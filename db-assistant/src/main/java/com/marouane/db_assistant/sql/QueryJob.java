@@ -0,0 +1,99 @@
+package com.marouane.db_assistant.sql;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Getter
+@Setter
+class QueryJob {
+    private final String id;
+    private final Integer userId;
+    private final String sql;
+    private final ResultFormat format;
+    private final LocalDateTime submittedAt = LocalDateTime.now();
+    // completed with the job itself once it reaches a final status
+    private final CompletableFuture<QueryJob> completion = new CompletableFuture<>();
+
+    private volatile QueryJobStatus status = QueryJobStatus.QUEUED;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private volatile QueryResultDto result;
+    private volatile String message;
+    private volatile Statement statement;
+    private volatile Future<?> future;
+    private volatile boolean cancelRequested;
+    // a lock rather than synchronized: completion callbacks write to SSE clients and must not pin a virtual thread
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ReentrantLock lock = new ReentrantLock();
+
+    QueryJob(String id, Integer userId, String sql, ResultFormat format) {
+        this.id = id;
+        this.userId = userId;
+        this.sql = sql;
+        this.format = format;
+    }
+
+    boolean start() {
+        lock.lock();
+        try {
+            if (status != QueryJobStatus.QUEUED || cancelRequested) {
+                return false;
+            }
+            startedAt = LocalDateTime.now();
+            status = QueryJobStatus.RUNNING;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the statement right before it executes
+    void attach(Statement statement) {
+        this.statement = statement;
+        if (cancelRequested) {
+            throw new CancellationException("Cancelled");
+        }
+    }
+
+    void cancel() {
+        cancelRequested = true;
+        Statement running = statement;
+        if (running != null) {
+            try {
+                running.cancel();
+            } catch (SQLException ignored) {
+                // the statement already finished or its connection is gone
+            }
+        } else if (status == QueryJobStatus.QUEUED && future != null && future.cancel(true)) {
+            finish(QueryJobStatus.CANCELLED, null, "Cancelled before it started");
+        }
+    }
+
+    void finish(QueryJobStatus finalStatus, QueryResultDto result, String message) {
+        lock.lock();
+        try {
+            if (status.isFinished()) {
+                return;
+            }
+            this.result = result;
+            this.message = message;
+            this.statement = null;
+            this.finishedAt = LocalDateTime.now();
+            this.status = finalStatus;
+        } finally {
+            lock.unlock();
+        }
+        // outside the lock, subscribers do I/O
+        completion.complete(this);
+    }
+}
@@ -0,0 +1,114 @@
+package com.marouane.db_assistant.sql;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+@RequestMapping("sql/jobs")
+@RequiredArgsConstructor
+@Tag(name = "SQL Jobs", description = "Run SQL queries in the background, follow and cancel them")
+public class QueryJobController {
+    private final QueryJobService queryJobService;
+
+    @PostMapping(produces = "application/json")
+    @Operation(
+            summary = "Submit a SQL query for background execution",
+            description = "Queues the given SQL query on the active database connection and immediately returns a job id.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "SQL query string to execute on the active database connection",
+                    required = true,
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = SqlRequest.class),
+                            examples = @ExampleObject(
+                                    name = "Select example",
+                                    value = "{\"sql\": \"SELECT region, SUM(amount) FROM orders GROUP BY region\"}"
+                            )
+                    )
+            )
+    )
+    public ResponseEntity<QueryJobDto> submit(@RequestBody SqlRequest sqlRequest, Authentication connectedUser) {
+        if (sqlRequest == null || sqlRequest.getSql() == null || sqlRequest.getSql().trim().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            ResultFormat format = sqlRequest.getFormat() != null ? sqlRequest.getFormat() : ResultFormat.ROWS;
+            QueryJobDto job = queryJobService.submit(connectedUser, sqlRequest.getSql().trim(), format);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (IllegalStateException e) {
+            QueryJobDto error = new QueryJobDto();
+            error.setMessage(e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
+    @GetMapping(produces = "application/json")
+    @Operation(
+            summary = "List query jobs",
+            description = "Lists the background queries of the authenticated user, most recent first."
+    )
+    public List<QueryJobDto> list(Authentication connectedUser) {
+        return queryJobService.list(connectedUser);
+    }
+
+    @GetMapping(value = "/{id}", produces = "application/json")
+    @Operation(
+            summary = "Get a query job",
+            description = "Returns the status of a background query, and its result once it finished."
+    )
+    public ResponseEntity<QueryJobDto> get(@PathVariable String id, Authentication connectedUser) {
+        return ResponseEntity.of(queryJobService.get(connectedUser, id));
+    }
+
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Subscribe to a query job",
+            description = "Sends the current status of the job, then its final status and result once it finished."
+    )
+    public ResponseEntity<SseEmitter> subscribe(@PathVariable String id, Authentication connectedUser) {
+        var current = queryJobService.get(connectedUser, id);
+        if (current.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        SseEmitter emitter = new SseEmitter(0L);
+        try {
+            emitter.send(SseEmitter.event().name("status").data(current.get()));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return ResponseEntity.ok(emitter);
+        }
+
+        queryJobService.onFinished(connectedUser, id, finished -> {
+            try {
+                emitter.send(SseEmitter.event().name("finished").data(finished));
+                emitter.complete();
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+            }
+        });
+        return ResponseEntity.ok(emitter);
+    }
+
+    @DeleteMapping(value = "/{id}", produces = "application/json")
+    @Operation(
+            summary = "Cancel a query job",
+            description = "Cancels a queued or running background query. Running statements are cancelled on the database."
+    )
+    public ResponseEntity<QueryJobDto> cancel(@PathVariable String id, Authentication connectedUser) {
+        return ResponseEntity.of(queryJobService.cancel(connectedUser, id));
+    }
+}
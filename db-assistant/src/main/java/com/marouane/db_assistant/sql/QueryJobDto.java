@@ -0,0 +1,36 @@
+package com.marouane.db_assistant.sql;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueryJobDto {
+    private String jobId;
+    private QueryJobStatus status;
+    private String sql;
+    private LocalDateTime submittedAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private String message;
+    private QueryResultDto result; // only set once the job finished
+
+    static QueryJobDto from(QueryJob job) {
+        return new QueryJobDto(
+                job.getId(),
+                job.getStatus(),
+                job.getSql(),
+                job.getSubmittedAt(),
+                job.getStartedAt(),
+                job.getFinishedAt(),
+                job.getMessage(),
+                job.getResult()
+        );
+    }
+}
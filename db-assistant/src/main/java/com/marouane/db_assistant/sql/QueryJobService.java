@@ -0,0 +1,157 @@
+package com.marouane.db_assistant.sql;
+
+import com.marouane.db_assistant.database.ConnectionManager;
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.user.User;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Runs queries in the background so long statements do not hold a request thread.
+ * Each job runs on its own virtual thread, a semaphore bounds how many of them hit the
+ * target databases at the same time. Jobs are kept per user, like the active connections.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QueryJobService {
+    private final Map<Integer, Map<String, QueryJob>> jobs = new ConcurrentHashMap<>();
+    private final SqlExecutionService sqlExecutionService;
+    private final ConnectionManager connectionManager;
+
+    @Value("${application.sql.jobs.max-concurrent}")
+    private int maxConcurrent;
+
+    @Value("${application.sql.jobs.max-pending-per-user}")
+    private int maxPendingPerUser;
+
+    @Value("${application.sql.jobs.retention}")
+    private long retention;
+
+    private ExecutorService executor;
+    private Semaphore running;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        running = new Semaphore(maxConcurrent, true);
+    }
+
+    public QueryJobDto submit(Authentication connectedUser, String sql, ResultFormat format) {
+        User user = (User) connectedUser.getPrincipal();
+        // resolved on submission: the job runs against the connection active now, even if the user switches
+        // before it leaves the queue, and fails here rather than in the background when nothing is connected
+        DatabaseConnection connection = connectionManager.getActiveConnection(user.getId());
+        DataSource dataSource = connectionManager.getActiveDataSource(user.getId());
+
+        Map<String, QueryJob> userJobs = jobs.computeIfAbsent(user.getId(), id -> new ConcurrentHashMap<>());
+        long pending = userJobs.values().stream().filter(job -> !job.getStatus().isFinished()).count();
+        if (pending >= maxPendingPerUser) {
+            throw new IllegalStateException("Too many running queries, wait for one to finish or cancel it");
+        }
+
+        QueryJob job = new QueryJob(UUID.randomUUID().toString(), user.getId(), sql, format);
+        userJobs.put(job.getId(), job);
+        job.setFuture(executor.submit(() -> run(job, user, dataSource, connection)));
+        return QueryJobDto.from(job);
+    }
+
+    private void run(QueryJob job, User user, DataSource dataSource, DatabaseConnection connection) {
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            job.finish(QueryJobStatus.CANCELLED, null, "Cancelled before it started");
+            return;
+        }
+        try {
+            if (!job.start()) {
+                job.finish(QueryJobStatus.CANCELLED, null, "Cancelled before it started");
+                return;
+            }
+
+            QueryResultDto result = sqlExecutionService.execute(user, dataSource, connection, job.getSql(), job.getFormat(), job::attach);
+            if (job.isCancelRequested()) {
+                job.finish(QueryJobStatus.CANCELLED, null, "Cancelled");
+            } else if (result.isSuccess()) {
+                job.finish(QueryJobStatus.SUCCEEDED, result, null);
+            } else {
+                job.finish(QueryJobStatus.FAILED, result, result.getMessage());
+            }
+        } catch (Exception e) {
+            if (job.isCancelRequested()) {
+                job.finish(QueryJobStatus.CANCELLED, null, "Cancelled");
+            } else {
+                log.warn("Query job {} failed", job.getId(), e);
+                job.finish(QueryJobStatus.FAILED, null, e.getMessage());
+            }
+        } finally {
+            running.release();
+        }
+    }
+
+    public Optional<QueryJobDto> get(Authentication connectedUser, String jobId) {
+        return find(connectedUser, jobId).map(QueryJobDto::from);
+    }
+
+    public List<QueryJobDto> list(Authentication connectedUser) {
+        User user = (User) connectedUser.getPrincipal();
+        return jobs.getOrDefault(user.getId(), Map.of()).values().stream()
+                .sorted((a, b) -> b.getSubmittedAt().compareTo(a.getSubmittedAt()))
+                .map(QueryJobDto::from)
+                .toList();
+    }
+
+    public Optional<QueryJobDto> cancel(Authentication connectedUser, String jobId) {
+        return find(connectedUser, jobId).map(job -> {
+            if (!job.getStatus().isFinished()) {
+                job.cancel();
+            }
+            return QueryJobDto.from(job);
+        });
+    }
+
+    /**
+     * Runs the callback once the job reached a final status, immediately if it already has.
+     */
+    public void onFinished(Authentication connectedUser, String jobId, Consumer<QueryJobDto> callback) {
+        find(connectedUser, jobId).ifPresent(job ->
+                job.getCompletion().thenAccept(finished -> callback.accept(QueryJobDto.from(finished))));
+    }
+
+    Optional<QueryJob> find(Authentication connectedUser, String jobId) {
+        User user = (User) connectedUser.getPrincipal();
+        return Optional.ofNullable(jobs.getOrDefault(user.getId(), Map.of()).get(jobId));
+    }
+
+    @Scheduled(fixedDelayString = "${application.sql.jobs.eviction-interval}")
+    public void evictFinishedJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minus(Duration.ofMillis(retention));
+        jobs.values().forEach(userJobs -> userJobs.values().removeIf(job ->
+                job.getStatus().isFinished() && job.getFinishedAt().isBefore(threshold)));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobs.values().forEach(userJobs -> userJobs.values().forEach(QueryJob::cancel));
+        executor.shutdownNow();
+    }
+}
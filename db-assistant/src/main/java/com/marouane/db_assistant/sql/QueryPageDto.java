@@ -0,0 +1,41 @@
+package com.marouane.db_assistant.sql;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class QueryPageDto {
+    private boolean success;
+    private String message;
+    private List<Map<String, Object>> data;
+    private List<String> columns;
+    private int rowCount;
+    private long offset; // position of the first row of this page in the whole result
+    private boolean hasMore;
+    private String continuationToken; // null on the last page
+
+    public QueryPageDto(List<Map<String, Object>> data, List<String> columns, long offset,
+                        boolean hasMore, String continuationToken) {
+        this.success = true;
+        this.data = data;
+        this.columns = columns;
+        this.rowCount = data.size();
+        this.offset = offset;
+        this.hasMore = hasMore;
+        this.continuationToken = continuationToken;
+    }
+
+    // For errors
+    public QueryPageDto(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+}
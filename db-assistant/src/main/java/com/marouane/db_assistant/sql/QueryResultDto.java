@@ -5,8 +5,11 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Getter
 @Setter
@@ -22,6 +25,8 @@ public class QueryResultDto {
     private int affectedRows;
     private boolean isAggregateQuery; // New field
     private Map<String, Object> aggregateResult; // New field for single results
+    private ColumnarResult columnar; // Set instead of data/columns for the COLUMNAR format
+    private List<String> warnings; // Governance rules the query breaks without being blocked
 
 
     // For SELECT queries with result sets
@@ -35,6 +40,16 @@ public class QueryResultDto {
         this.isAggregateQuery = false;
     }
 
+    // For SELECT queries read in the columnar format
+    public QueryResultDto(boolean success, ColumnarResult columnar) {
+        this.success = success;
+        this.columnar = columnar;
+        this.columns = columnar.getColumns();
+        this.rowCount = columnar.getRowCount();
+        this.queryType = "SELECT";
+        this.isAggregateQuery = false;
+    }
+
     // For aggregate queries (COUNT, SUM, AVG, etc.)
     public QueryResultDto(boolean success, Map<String, Object> aggregateResult,
                           String functionName, Object resultValue) {
@@ -60,6 +75,23 @@ public class QueryResultDto {
         this.message = message;
     }
 
+    // For a caller that joined an identical query: its own instance and rows, the columnar result is only read
+    public QueryResultDto copy() {
+        return new QueryResultDto(
+                success,
+                message,
+                data != null ? data.stream().<Map<String, Object>>map(HashMap::new).collect(Collectors.toList()) : null,
+                columns != null ? new ArrayList<>(columns) : null,
+                rowCount,
+                queryType,
+                affectedRows,
+                isAggregateQuery,
+                aggregateResult != null ? new HashMap<>(aggregateResult) : null,
+                columnar,
+                warnings != null ? new ArrayList<>(warnings) : null
+        );
+    }
+
 
 
 }
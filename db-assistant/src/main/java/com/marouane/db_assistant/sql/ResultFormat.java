@@ -0,0 +1,6 @@
+package com.marouane.db_assistant.sql;
+
+public enum ResultFormat {
+    ROWS,     // one map per row, used by the UI
+    COLUMNAR  // column header plus one typed array per column
+}
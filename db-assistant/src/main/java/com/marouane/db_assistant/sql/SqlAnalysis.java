@@ -0,0 +1,65 @@
+package com.marouane.db_assistant.sql;
+
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.ParenthesedSelect;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SetOperationList;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a statement does, as read from its parse tree.
+ *
+ * @param statementType     SELECT, INSERT, UPDATE, DELETE, CREATE, ALTER, DROP, TRUNCATE, MERGE, CALL, EXPLAIN or UNKNOWN;
+ *                          MULTIPLE when the SQL holds several statements of different types
+ * @param tables            tables the statement reads or writes, as written in the SQL
+ * @param aggregateFunction COUNT, SUM, AVG, MIN or MAX when the statement selects a single aggregate value, else null
+ * @param readOnly          true only when the parser understood every statement and all are plain queries:
+ *                          no DML, DDL, SELECT INTO or row locks
+ * @param parsed            false when the parser did not understand the statement and the type was guessed from its first word
+ * @param statements        the parse trees, one per statement, empty when not parsed; shared through the cache,
+ *                          so read them, never modify them
+ */
+public record SqlAnalysis(
+        String statementType,
+        Set<String> tables,
+        String aggregateFunction,
+        boolean readOnly,
+        boolean parsed,
+        List<Statement> statements
+) {
+    public boolean isAggregate() {
+        return aggregateFunction != null;
+    }
+
+    /**
+     * A single SELECT with an ORDER BY at its top level: running it again returns the rows in the same
+     * order, as long as the ORDER BY ends with a unique column.
+     */
+    public boolean isOrdered() {
+        return statements.size() == 1 && statements.getFirst() instanceof Select select && hasOrderBy(select);
+    }
+
+    private static boolean hasOrderBy(Select select) {
+        List<OrderByElement> orderBy = null;
+        if (select instanceof PlainSelect plain) {
+            orderBy = plain.getOrderByElements();
+        } else if (select instanceof SetOperationList setOperations) {
+            orderBy = setOperations.getOrderByElements();
+        } else if (select instanceof ParenthesedSelect parenthesed) {
+            return hasOrderBy(parenthesed.getSelect());
+        }
+        return orderBy != null && !orderBy.isEmpty();
+    }
+
+    public QueryType queryType() {
+        try {
+            return QueryType.valueOf(statementType);
+        } catch (IllegalArgumentException e) {
+            return QueryType.OTHER;
+        }
+    }
+}
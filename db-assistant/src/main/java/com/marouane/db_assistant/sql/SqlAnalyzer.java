@@ -0,0 +1,147 @@
+package com.marouane.db_assistant.sql;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.ParenthesedSelect;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectItem;
+import net.sf.jsqlparser.statement.select.SetOperationList;
+import net.sf.jsqlparser.statement.select.Values;
+import net.sf.jsqlparser.statement.select.WithItem;
+import net.sf.jsqlparser.util.TablesNamesFinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Parses each distinct statement once and caches what it found, so execution, history and pagination
+ * classify SQL from the parse tree instead of scanning the text: keywords inside string literals,
+ * comments or CTEs no longer fool them.
+ */
+@Slf4j
+@Component
+public class SqlAnalyzer {
+    private static final Set<String> AGGREGATES = Set.of("COUNT", "SUM", "AVG", "MIN", "MAX");
+    private static final List<String> KNOWN_TYPES = List.of(
+            "SELECT", "INSERT", "UPDATE", "DELETE", "CREATE", "ALTER", "DROP", "TRUNCATE", "MERGE", "CALL", "EXPLAIN");
+
+    private final Cache<String, SqlAnalysis> analyses;
+
+    public SqlAnalyzer(@Value("${application.sql.analysis.cache-size}") long cacheSize) {
+        this.analyses = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+    }
+
+    public SqlAnalysis analyze(String sql) {
+        if (sql == null || sql.isBlank()) {
+            return new SqlAnalysis("UNKNOWN", Set.of(), null, false, false, List.of());
+        }
+        return analyses.get(SqlExecutionService.normalize(sql), this::parse);
+    }
+
+    private SqlAnalysis parse(String sql) {
+        List<Statement> statements;
+        try {
+            // every statement of the string, the driver would run them all
+            statements = List.copyOf(CCJSqlParserUtil.parseStatements(sql));
+        } catch (JSQLParserException e) {
+            // dialect specific syntax the parser does not know: classify by the first word, never as read-only
+            log.debug("Could not parse SQL, falling back to its first keyword: {}", e.getMessage());
+            return new SqlAnalysis(firstKeyword(sql), Set.of(), null, false, false, List.of());
+        }
+        if (statements.isEmpty()) {
+            return new SqlAnalysis(firstKeyword(sql), Set.of(), null, false, false, List.of());
+        }
+
+        Set<String> tables = new HashSet<>();
+        for (Statement statement : statements) {
+            try {
+                tables.addAll(new TablesNamesFinder().getTables(statement));
+            } catch (UnsupportedOperationException e) {
+                // the finder does not visit every statement type (e.g. some DDL)
+            }
+        }
+
+        Set<String> types = statements.stream().map(SqlAnalyzer::statementType).collect(Collectors.toSet());
+        String statementType = types.size() == 1 ? types.iterator().next() : "MULTIPLE";
+        boolean readOnly = statements.stream().allMatch(statement -> statement instanceof Select select && isReadOnly(select));
+        String aggregateFunction = statements.size() == 1 && statements.getFirst() instanceof Select select
+                ? aggregateFunction(select)
+                : null;
+        return new SqlAnalysis(statementType, Set.copyOf(tables), aggregateFunction, readOnly, true, statements);
+    }
+
+    // A single selected column that is an aggregate call, e.g. SELECT COUNT(*) FROM orders WHERE ...
+    private String aggregateFunction(Select select) {
+        if (!(select instanceof PlainSelect plain) || plain.getSelectItems().size() != 1) {
+            return null;
+        }
+        SelectItem<?> item = plain.getSelectItems().getFirst();
+        if (item.getExpression() instanceof Function function && function.getName() != null) {
+            String name = function.getName().toUpperCase();
+            return AGGREGATES.contains(name) ? name : null;
+        }
+        return null;
+    }
+
+    // Every part must be a plain read: the WITH items, each branch of a UNION/INTERSECT/EXCEPT, the parenthesized selects
+    private boolean isReadOnly(Select select) {
+        if (select == null) {
+            return false;
+        }
+        if (select.getWithItemsList() != null) {
+            for (WithItem withItem : select.getWithItemsList()) {
+                if (!isReadOnly(withItem.getSelect())) {
+                    return false;
+                }
+            }
+        }
+        if (select instanceof PlainSelect plain) {
+            // SELECT ... INTO creates a table, FOR UPDATE locks rows
+            return plain.getIntoTables() == null && plain.getForMode() == null;
+        }
+        if (select instanceof ParenthesedSelect parenthesed) {
+            return isReadOnly(parenthesed.getSelect());
+        }
+        if (select instanceof SetOperationList setOperations) {
+            return setOperations.getSelects().stream().allMatch(this::isReadOnly);
+        }
+        return select instanceof Values;
+    }
+
+    public static String statementType(Statement statement) {
+        if (statement instanceof Select) {
+            return "SELECT";
+        }
+        String name = statement.getClass().getSimpleName();
+        if (name.equals("Upsert")) {
+            return "INSERT";
+        }
+        if (name.equals("ExplainStatement")) {
+            return "EXPLAIN";
+        }
+        if (name.equals("Execute")) {
+            return "CALL";
+        }
+        return KNOWN_TYPES.stream()
+                .filter(type -> name.toUpperCase().startsWith(type))
+                .findFirst()
+                .orElse("UNKNOWN");
+    }
+
+    private String firstKeyword(String sql) {
+        String firstWord = sql.trim().split("\\s+")[0].toUpperCase();
+        return KNOWN_TYPES.contains(firstWord) ? firstWord : "UNKNOWN";
+    }
+}
@@ -1,5 +1,8 @@
 package com.marouane.db_assistant.sql;
 
+import com.marouane.db_assistant.database.ConnectionManager;
+import com.marouane.db_assistant.exception.LlmCapacityException;
+import com.marouane.db_assistant.user.User;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
@@ -7,12 +10,23 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
 
 @RestController
 @RequestMapping("sql")
@@ -21,6 +35,8 @@ import org.springframework.web.bind.annotation.RestController;
 public class SqlController {
     private final SqlExecutionService sqlExecutionService;
     private final SqlGenerationService sqlGenerationService;
+    private final ConnectionManager connectionManager;
+    private final PaginatedQueryService paginatedQueryService;
 
     @PostMapping(value = "/generate", produces = "application/json")
     @Operation(
@@ -39,6 +55,10 @@ public class SqlController {
         try {
             String sql = sqlGenerationService.generateSqlFromQuestion(connectedUser, question);
             return ResponseEntity.ok(new SqlResponseDto(sql));
+        } catch (LlmCapacityException e) {
+            SqlResponseDto errorDto = new SqlResponseDto(null);
+            errorDto.setError(e.getMessage());
+            return ResponseEntity.status(e.getStatus()).body(errorDto);
         } catch (IllegalStateException e) {
             // Wrap error in the DTO
             SqlResponseDto errorDto = new SqlResponseDto(null);
@@ -51,10 +71,76 @@ public class SqlController {
         }
     }
 
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Generate SQL from a natural language question, streamed",
+            description = "Same as /generate but pushes the answer as Server-Sent Events: \"token\" events carry the chunks " +
+                    "as the model writes them, for display only; a final \"done\" event the SQL that passed the governance checks, " +
+                    "or CANNOT_ANSWER with the violated rules; an \"error\" event any failure. Only the \"done\" SQL is meant to be run.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "Natural language question to generate SQL",
+                    required = true,
+                    content = @Content(
+                            mediaType = "application/json",
+                            examples = @ExampleObject(value = "\"Show all customers who spent more than 1000 last month\"")
+                    )
+            )
+    )
+    public SseEmitter generateSqlStream(@RequestBody String question, Authentication connectedUser) {
+        SseEmitter emitter = new SseEmitter(0L);
+        Flux<SqlStreamEvent> events;
+        try {
+            events = sqlGenerationService.streamSqlFromQuestion(connectedUser, question);
+        } catch (LlmCapacityException e) {
+            sendError(emitter, e.getMessage());
+            return emitter;
+        } catch (IllegalStateException e) {
+            sendError(emitter, "No active database connection. Please connect to a database first.");
+            return emitter;
+        } catch (Exception e) {
+            sendError(emitter, "Error generating SQL: " + e.getMessage());
+            return emitter;
+        }
+
+        Disposable subscription = events.subscribe(
+                event -> {
+                    try {
+                        if (event.done() != null) {
+                            emitter.send(SseEmitter.event().name("done").data(event.done()));
+                        } else {
+                            emitter.send(SseEmitter.event().name("token").data(event.token()));
+                        }
+                    } catch (IOException e) {
+                        // client went away, onCompletion below cancels the stream
+                        emitter.completeWithError(e);
+                    }
+                },
+                error -> sendError(emitter, "Error generating SQL: " + error.getMessage()),
+                emitter::complete
+        );
+        // stop paying for tokens nobody will read
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(error -> subscription.dispose());
+        return emitter;
+    }
+
+    private void sendError(SseEmitter emitter, String message) {
+        try {
+            SqlResponseDto errorDto = new SqlResponseDto(null);
+            errorDto.setError(message);
+            emitter.send(SseEmitter.event().name("error").data(errorDto));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+    }
+
     @PostMapping(value = "/execute", produces = "application/json")
     @Operation(
             summary = "Execute a raw SQL query",
-            description = "Runs the given SQL query on the active database connection and returns structured results.",
+            description = "Runs the given SQL query on the active database connection and returns structured results. " +
+                    "Set format to COLUMNAR to receive one typed array per column instead of one object per row.",
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "SQL query string to execute on the active database connection",
                     required = true,
@@ -75,7 +161,8 @@ public class SqlController {
             }
 
             String sql = sqlRequest.getSql().trim();
-            return sqlExecutionService.execute(connectedUser, sql);
+            ResultFormat format = sqlRequest.getFormat() != null ? sqlRequest.getFormat() : ResultFormat.ROWS;
+            return sqlExecutionService.execute(connectedUser, sql, format);
 
         } catch (IllegalArgumentException e) {
             // No active database connection
@@ -87,8 +174,106 @@ public class SqlController {
         }
     }
 
+    @PostMapping(value = "/execute/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(
+            summary = "Execute a raw SQL query and stream the results",
+            description = "Runs the given SQL query on the active database connection and streams the rows as newline-delimited JSON " +
+                    "while they are read. The first line contains the column names, the last line the row count.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "SQL query string to execute on the active database connection",
+                    required = true,
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = SqlRequest.class),
+                            examples = @ExampleObject(
+                                    name = "Select example",
+                                    value = "{\"sql\": \"SELECT * FROM orders\"}"
+                            )
+                    )
+            )
+    )
+    public ResponseEntity<StreamingResponseBody> executeSqlStream(@RequestBody SqlRequest sqlRequest, Authentication connectedUser) {
+        if (sqlRequest == null || sqlRequest.getSql() == null || sqlRequest.getSql().trim().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        User user = (User) connectedUser.getPrincipal();
+        try {
+            // fail before the response is committed when there is nothing to stream from
+            connectionManager.getActiveDataSource(user.getId());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        String sql = sqlRequest.getSql().trim();
+        StreamingResponseBody body = out -> sqlExecutionService.stream(user, sql, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
 
+    @PostMapping(value = "/execute/page", produces = "application/json")
+    @Operation(
+            summary = "Execute a SELECT query and return its first page",
+            description = "Runs the given SELECT query on the active database connection and returns the first page of rows. " +
+                    "When more rows are available the response contains a continuation token for the next page.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    description = "SQL query string to execute on the active database connection",
+                    required = true,
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = SqlRequest.class),
+                            examples = @ExampleObject(
+                                    name = "Select example",
+                                    value = "{\"sql\": \"SELECT * FROM orders ORDER BY id\"}"
+                            )
+                    )
+            )
+    )
+    public QueryPageDto executeSqlPage(
+            @RequestBody SqlRequest sqlRequest,
+            @RequestParam(required = false) Integer pageSize,
+            Authentication connectedUser
+    ) {
+        try {
+            if (sqlRequest == null || sqlRequest.getSql() == null || sqlRequest.getSql().trim().isEmpty()) {
+                return new QueryPageDto(false, "SQL query cannot be empty");
+            }
+            return paginatedQueryService.firstPage(connectedUser, sqlRequest.getSql().trim(), pageSize);
 
+        } catch (IllegalStateException e) {
+            return new QueryPageDto(false, "No database connected: " + e.getMessage());
+
+        } catch (Exception e) {
+            return new QueryPageDto(false, "Execution error: " + e.getMessage());
+        }
+    }
 
+    @GetMapping(value = "/execute/page/{token}", produces = "application/json")
+    @Operation(
+            summary = "Get the next page of a paginated query",
+            description = "Returns the next page of rows for the continuation token returned by the previous page."
+    )
+    public QueryPageDto nextSqlPage(@PathVariable String token, Authentication connectedUser) {
+        try {
+            return paginatedQueryService.nextPage(connectedUser, token);
 
+        } catch (IllegalStateException e) {
+            return new QueryPageDto(false, "No database connected: " + e.getMessage());
+
+        } catch (Exception e) {
+            return new QueryPageDto(false, "Execution error: " + e.getMessage());
+        }
+    }
+
+    @DeleteMapping(value = "/execute/page/{token}")
+    @Operation(
+            summary = "Close a paginated query",
+            description = "Releases the server-side cursor behind the continuation token before it expires."
+    )
+    public ResponseEntity<Void> closeSqlPage(@PathVariable String token, Authentication connectedUser) {
+        paginatedQueryService.close(connectedUser, token);
+        return ResponseEntity.noContent().build();
+    }
 }
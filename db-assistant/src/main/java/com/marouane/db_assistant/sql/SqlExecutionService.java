@@ -1,175 +1,312 @@
 package com.marouane.db_assistant.sql;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marouane.db_assistant.common.SingleFlight;
 import com.marouane.db_assistant.database.ConnectionManager;
 import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.database.PoolKey;
+import com.marouane.db_assistant.governance.GovernanceChecker;
+import com.marouane.db_assistant.governance.GovernanceStage;
+import com.marouane.db_assistant.governance.GovernanceViolation;
 import com.marouane.db_assistant.user.User;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class SqlExecutionService {
     private final ConnectionManager connectionManager;
     private final QueryHistoryService queryHistoryService;
+    private final ObjectMapper objectMapper;
+    private final SqlAnalyzer sqlAnalyzer;
+    private final GovernanceChecker governanceChecker;
+    private final SingleFlight<InFlightQuery, QueryResultDto> inFlightQueries = new SingleFlight<>();
+
+    @Value("${application.sql.stream.fetch-size}")
+    private int streamFetchSize;
+
+    @Value("${application.sql.query-timeout}")
+    private int defaultQueryTimeout;
 
     public QueryResultDto execute(Authentication connectedUser, String sql) throws SQLException {
-        User user = (User) connectedUser.getPrincipal();
+        return execute(connectedUser, sql, ResultFormat.ROWS);
+    }
 
-        DataSource dataSource = connectionManager.getActiveDataSource(user.getId());
+    /**
+     * Identical read queries that arrive while one is already running on the same connection wait for it
+     * and share its result instead of hitting the database again.
+     */
+    public QueryResultDto execute(Authentication connectedUser, String sql, ResultFormat format) throws SQLException {
+        User user = (User) connectedUser.getPrincipal();
+        // resolved per caller: only a connection this user activated, and so owns, is ever joined;
+        // users of the same database with the same credentials then share the query
         DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
-        // validate syntax without executing
-
-        try(Connection conn = dataSource.getConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-        ) {
-            // Syntax valid if no exception
-        }catch (SQLException e) {
-            throw new SQLException("SQL syntax error: " + e.getMessage(), e);
+        // read-only only: writes must run once per caller
+        SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+        if (!analysis.readOnly()) {
+            return execute(user, sql, format, stmt -> { });
+        }
+
+        AtomicBoolean ranHere = new AtomicBoolean();
+        QueryResultDto result = inFlightQueries.run(
+                new InFlightQuery(PoolKey.of(activeConnection), normalize(sql), format),
+                () -> {
+                    ranHere.set(true);
+                    return execute(user, sql, format, stmt -> { });
+                });
+        if (ranHere.get()) {
+            return result;
+        }
+        if (result.isSuccess()) {
+            // the query ran once but every caller asked for it
+            queryHistoryService.logQuery(user, activeConnection, sql, analysis);
+        }
+        // the leader's instance is shared by every caller that joined it
+        return result.copy();
+    }
+
+    private record InFlightQuery(PoolKey target, String sql, ResultFormat format) {
+    }
+
+
+    /**
+     * Executes the query for the given user. {@code onStatement} receives the statement right before it runs,
+     * which lets asynchronous callers cancel it from another thread.
+     */
+    public QueryResultDto execute(User user, String sql, ResultFormat format, Consumer<Statement> onStatement) throws SQLException {
+        return execute(user, connectionManager.getActiveDataSource(user.getId()),
+                connectionManager.getActiveConnection(user.getId()), sql, format, onStatement);
+    }
+
+    /**
+     * Executes the query on the given connection, for callers that resolved it earlier than they run the query.
+     */
+    public QueryResultDto execute(User user, DataSource dataSource, DatabaseConnection activeConnection,
+                                  String sql, ResultFormat format, Consumer<Statement> onStatement) throws SQLException {
+        List<GovernanceViolation> violations = governanceChecker.check(sqlAnalyzer.analyze(sql), GovernanceStage.EXECUTION);
+        if (GovernanceChecker.isBlocked(violations)) {
+            return new QueryResultDto(false, "Blocked by governance: " + describe(violations));
         }
 
+        // a plain statement: ad-hoc SQL has no parameters, and preparing it would turn the jsonb ?, ?| and ?&
+        // operators into bind markers
         try (Connection conn = dataSource.getConnection();
              Statement stmt = conn.createStatement()) {
+            stmt.setQueryTimeout(queryTimeout(activeConnection));
+            onStatement.accept(stmt);
+            try {
+                QueryResultDto result = run(stmt, user, activeConnection, sql, format);
+                if (!violations.isEmpty()) {
+                    result.setWarnings(violations.stream().map(GovernanceViolation::toString).toList());
+                }
+                return result;
+            } catch (SQLException e) {
+                return new QueryResultDto(false, "Execution error: " + e.getMessage());
+            }
+        }
+    }
 
-            boolean hasResultSet = stmt.execute(sql);
-            queryHistoryService.logQuery(user, activeConnection, sql);
+    private String describe(List<GovernanceViolation> violations) {
+        return violations.stream()
+                .filter(GovernanceViolation::isBlocking)
+                .map(GovernanceViolation::toString)
+                .collect(Collectors.joining("; "));
+    }
 
-            if (hasResultSet) {
-                try (ResultSet rs = stmt.getResultSet()) {
-                    ResultSetMetaData metaData = rs.getMetaData();
-                    int columnCount = metaData.getColumnCount();
+    int queryTimeout(DatabaseConnection connection) {
+        return connection.getQueryTimeoutSeconds() != null ? connection.getQueryTimeoutSeconds() : defaultQueryTimeout;
+    }
 
-                    List<String> columns = new ArrayList<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        columns.add(metaData.getColumnName(i));
-                    }
+    private QueryResultDto run(Statement stmt, User user, DatabaseConnection activeConnection,
+                               String sql, ResultFormat format) throws SQLException {
+        boolean hasResultSet = stmt.execute(normalize(sql));
+        SqlAnalysis analysis = sqlAnalyzer.analyze(sql);
+        queryHistoryService.logQuery(user, activeConnection, sql, analysis);
 
-                    List<Map<String, Object>> data = new ArrayList<>();
-                    int rowCount = 0;
+        if (hasResultSet) {
+            try (ResultSet rs = stmt.getResultSet()) {
+                if (format == ResultFormat.COLUMNAR) {
+                    ColumnarResult columnar = ColumnarResult.read(rs);
 
-                    while (rs.next()) {
-                        Map<String, Object> row = new HashMap<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            row.put(columns.get(i-1), rs.getObject(i));
-                        }
-                        data.add(row);
-                        rowCount++;
+                    if (analysis.isAggregate() && columnar.getRowCount() == 1 && columnar.getColumns().size() == 1) {
+                        return aggregateResult(analysis, columnar.getValue(0, 0));
                     }
+                    return new QueryResultDto(true, columnar);
+                }
+
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
 
-                    // Check if this is an aggregate query
-                    if (isAggregateQuery(sql) && rowCount == 1 && columnCount == 1) {
-                        Object resultValue = data.get(0).values().iterator().next();
-                        String functionName = detectAggregateFunction(sql);
-                        Map<String, Object> aggregateResult = Map.of(
-                                "function", functionName,
-                                "value", resultValue,
-                                "displayName", getDisplayName(functionName)
-                        );
-                        return new QueryResultDto(true, aggregateResult, functionName, resultValue);
+                List<String> columns = new ArrayList<>();
+                for (int i = 1; i <= columnCount; i++) {
+                    columns.add(metaData.getColumnName(i));
+                }
+
+                List<Map<String, Object>> data = new ArrayList<>();
+                int rowCount = 0;
+
+                while (rs.next()) {
+                    Map<String, Object> row = HashMap.newHashMap(columnCount);
+                    for (int i = 1; i <= columnCount; i++) {
+                        row.put(columns.get(i-1), rs.getObject(i));
                     }
+                    data.add(row);
+                    rowCount++;
+                }
 
-                    return new QueryResultDto(true, data, columns, rowCount);
+                // Check if this is an aggregate query
+                if (analysis.isAggregate() && rowCount == 1 && columnCount == 1) {
+                    return aggregateResult(analysis, data.get(0).values().iterator().next());
                 }
-            } else {
-                int affectedRows = stmt.getUpdateCount();
-                String queryType = getQueryType(sql);
-                return new QueryResultDto(true, affectedRows, queryType);
+
+                return new QueryResultDto(true, data, columns, rowCount);
             }
-        } catch (SQLException e) {
-            return new QueryResultDto(false, "Execution error: " + e.getMessage());
+        } else {
+            int affectedRows = stmt.getUpdateCount();
+            return new QueryResultDto(true, affectedRows, analysis.statementType());
         }
     }
 
-    private boolean isAggregateQuery(String sql) {
-        String upperSql = sql.toUpperCase();
-        return upperSql.contains("COUNT(") || upperSql.contains("SUM(") ||
-                upperSql.contains("AVG(") || upperSql.contains("MAX(") ||
-                upperSql.contains("MIN(") || upperSql.contains("GROUP BY");
-    }
+    /**
+     * Executes the query and writes the result as newline-delimited JSON while the rows are read,
+     * so memory use does not depend on the size of the result set.
+     * The first line holds the column names, each following line one row, and the last line the row count.
+     */
+    public void stream(User user, String sql, OutputStream out) throws IOException {
+        DataSource dataSource = connectionManager.getActiveDataSource(user.getId());
+        DatabaseConnection activeConnection = connectionManager.getActiveConnection(user.getId());
 
-    private String detectAggregateFunction(String sql) {
-        String upperSql = sql.toUpperCase();
-        if (upperSql.contains("COUNT(")) return "COUNT";
-        if (upperSql.contains("SUM(")) return "SUM";
-        if (upperSql.contains("AVG(")) return "AVG";
-        if (upperSql.contains("MAX(")) return "MAX";
-        if (upperSql.contains("MIN(")) return "MIN";
-        return "AGGREGATE";
-    }
+        try (JsonGenerator json = objectMapper.createGenerator(out)) {
+            json.setRootValueSeparator(new SerializedString("\n"));
 
-    private String getDisplayName(String function) {
-        switch (function) {
-            case "COUNT": return "Total Count";
-            case "SUM": return "Sum";
-            case "AVG": return "Average";
-            case "MAX": return "Maximum";
-            case "MIN": return "Minimum";
-            default: return "Result";
-        }
-    }
+            List<GovernanceViolation> violations = governanceChecker.check(sqlAnalyzer.analyze(sql), GovernanceStage.EXECUTION);
+            if (GovernanceChecker.isBlocked(violations)) {
+                json.writeStartObject();
+                json.writeStringField("error", "Blocked by governance: " + describe(violations));
+                json.writeEndObject();
+                json.writeRaw('\n');
+                return;
+            }
 
-    private String getQueryType(String sql) {
-        if (sql == null || sql.trim().isEmpty()) {
-            return "UNKNOWN";
-        }
+            try (Connection conn = dataSource.getConnection()) {
+                // PostgreSQL only reads through a server-side cursor outside of autocommit mode
+                conn.setAutoCommit(false);
 
-        String upperSql = sql.trim().toUpperCase();
+                try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    stmt.setQueryTimeout(queryTimeout(activeConnection));
+                    // MySQL streams row by row only with Integer.MIN_VALUE as fetch size
+                    stmt.setFetchSize("mysql".equalsIgnoreCase(activeConnection.getDbType())
+                            ? Integer.MIN_VALUE
+                            : streamFetchSize);
 
-        // Check for SELECT first (most common)
-        if (upperSql.startsWith("SELECT")) {
-            return "SELECT";
-        }
+                    boolean hasResultSet = stmt.execute(normalize(sql));
+                    queryHistoryService.logQuery(user, activeConnection, sql);
 
-        // Check for INSERT variations
-        if (upperSql.startsWith("INSERT")) {
-            return "INSERT";
+                    if (hasResultSet) {
+                        try (ResultSet rs = stmt.getResultSet()) {
+                            writeRows(rs, json);
+                        }
+                    } else {
+                        json.writeStartObject();
+                        json.writeStringField("queryType", sqlAnalyzer.analyze(sql).statementType());
+                        json.writeNumberField("affectedRows", stmt.getUpdateCount());
+                        json.writeEndObject();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                json.writeStartObject();
+                json.writeStringField("error", "Execution error: " + e.getMessage());
+                json.writeEndObject();
+            }
+            json.writeRaw('\n');
         }
+    }
 
-        // Check for UPDATE
-        if (upperSql.startsWith("UPDATE")) {
-            return "UPDATE";
-        }
+    private void writeRows(ResultSet rs, JsonGenerator json) throws SQLException, IOException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
 
-        // Check for DELETE
-        if (upperSql.startsWith("DELETE")) {
-            return "DELETE";
+        String[] columns = new String[columnCount];
+        json.writeStartObject();
+        json.writeArrayFieldStart("columns");
+        for (int i = 1; i <= columnCount; i++) {
+            columns[i - 1] = metaData.getColumnName(i);
+            json.writeString(columns[i - 1]);
         }
+        json.writeEndArray();
+        json.writeEndObject();
 
-        // Check for DDL commands
-        if (upperSql.startsWith("CREATE")) {
-            return "CREATE";
-        }
-        if (upperSql.startsWith("ALTER")) {
-            return "ALTER";
-        }
-        if (upperSql.startsWith("DROP")) {
-            return "DROP";
-        }
-        if (upperSql.startsWith("TRUNCATE")) {
-            return "TRUNCATE";
-        }
+        int rowCount = 0;
+        while (rs.next()) {
+            json.writeStartObject();
+            for (int i = 1; i <= columnCount; i++) {
+                json.writeFieldName(columns[i - 1]);
+                json.writeObject(rs.getObject(i));
+            }
+            json.writeEndObject();
+            rowCount++;
 
-        // Check for other common operations
-        if (upperSql.startsWith("MERGE")) {
-            return "MERGE";
-        }
-        if (upperSql.startsWith("CALL")) {
-            return "CALL";
-        }
-        if (upperSql.startsWith("EXPLAIN")) {
-            return "EXPLAIN";
+            // push every fetched batch to the client instead of buffering the whole response
+            if (rowCount % streamFetchSize == 0) {
+                json.flush();
+            }
         }
 
-        return "UNKNOWN";
+        json.writeStartObject();
+        json.writeNumberField("rowCount", rowCount);
+        json.writeEndObject();
     }
 
+    /**
+     * Trims the statement and drops trailing semicolons so that the same query typed slightly differently
+     * is recognized as the same query.
+     */
+    static String normalize(String sql) {
+        String normalized = sql.trim();
+        while (normalized.endsWith(";")) {
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        }
+        return normalized;
+    }
 
-}
+    private QueryResultDto aggregateResult(SqlAnalysis analysis, Object resultValue) {
+        String functionName = analysis.aggregateFunction();
+        Map<String, Object> aggregateResult = Map.of(
+                "function", functionName,
+                "value", resultValue,
+                "displayName", displayName(functionName)
+        );
+        return new QueryResultDto(true, aggregateResult, functionName, resultValue);
+    }
 
+    private String displayName(String function) {
+        return switch (function) {
+            case "COUNT" -> "Total Count";
+            case "SUM" -> "Sum";
+            case "AVG" -> "Average";
+            case "MAX" -> "Maximum";
+            case "MIN" -> "Minimum";
+            default -> "Result";
+        };
+    }
+}
@@ -0,0 +1,161 @@
+package com.marouane.db_assistant.sql;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.marouane.db_assistant.database.SchemaModel;
+import com.marouane.db_assistant.rag.VectorStores;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Two level cache of generated SQL, keyed by (connection id, schema fingerprint).
+ * Level one is an exact match on the normalized question, level two a similarity search over the
+ * questions already answered (kind = sql-cache in the vector store), off unless enabled. A similar
+ * question only reuses the SQL when both mention the same literals: "orders in 2023" never answers
+ * "orders in 2024". A new schema fingerprint makes every entry of the previous one unreachable,
+ * and those entries are purged.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SqlGenerationCache {
+    private final VectorStores vectorStores;
+    // connection id -> fingerprint the cached entries were generated against
+    private final Map<Integer, String> fingerprints = new ConcurrentHashMap<>();
+    private Cache<CacheKey, String> exactMatches;
+
+    @Value("${application.sql.generation-cache.max-entries}")
+    private int maxEntries;
+
+    @Value("${application.sql.generation-cache.semantic.enabled}")
+    private boolean semanticEnabled;
+
+    @Value("${application.sql.generation-cache.similarity-threshold}")
+    private double similarityThreshold;
+
+    // numbers, quoted strings, month and day names: what tells apart questions that embed alike
+    private static final Pattern LITERAL = Pattern.compile(
+            "\\d+(?:[.,:/-]\\d+)*|'[^']*'|\"[^\"]*\""
+                    + "|\\b(?:january|february|march|april|may|june|july|august|september|october|november|december"
+                    + "|jan|feb|mar|apr|jun|jul|aug|sep|sept|oct|nov|dec)\\b"
+                    + "|\\b(?:mon|tues|wednes|thurs|fri|satur|sun)day\\b");
+
+    private record CacheKey(Integer connectionId, String fingerprint, String question) {
+    }
+
+    @PostConstruct
+    void init() {
+        exactMatches = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    public Optional<String> lookup(SchemaModel schema, String question) {
+        purgeIfSchemaChanged(schema);
+        String normalized = normalize(question);
+
+        String sql = exactMatches.getIfPresent(new CacheKey(schema.getConnectionId(), schema.getFingerprint(), normalized));
+        if (sql != null || !semanticEnabled) {
+            return Optional.ofNullable(sql);
+        }
+
+        List<Document> similar = vectorStore().similaritySearch(SearchRequest.builder()
+                .query(normalized)
+                .topK(1)
+                .similarityThreshold(similarityThreshold)
+                .filterExpression(namespace(schema.getConnectionId())
+                        + " && schemaFingerprint == '" + schema.getFingerprint() + "'")
+                .build());
+        if (similar.isEmpty() || !literals(similar.getFirst().getText()).equals(literals(normalized))) {
+            return Optional.empty();
+        }
+
+        sql = (String) similar.getFirst().getMetadata().get("sql");
+        log.debug("Semantic cache hit for '{}' (matched '{}')", normalized, similar.getFirst().getText());
+        exactMatches.put(new CacheKey(schema.getConnectionId(), schema.getFingerprint(), normalized), sql);
+        return Optional.of(sql);
+    }
+
+    public void put(SchemaModel schema, String question, String sql) {
+        String normalized = normalize(question);
+        exactMatches.put(new CacheKey(schema.getConnectionId(), schema.getFingerprint(), normalized), sql);
+        if (!semanticEnabled) {
+            return;
+        }
+        // the embedding call is not the caller's business, it already has its answer
+        Thread.ofVirtual().name("sql-cache-put").start(() -> {
+            try {
+                vectorStore().add(List.of(Document.builder()
+                        .text(normalized)
+                        .metadata(Map.of(
+                                "kind", "sql-cache",
+                                "connectionId", schema.getConnectionId(),
+                                "schemaFingerprint", schema.getFingerprint(),
+                                "sql", sql
+                        ))
+                        .build()));
+            } catch (RuntimeException e) {
+                log.warn("Could not add '{}' to the semantic cache: {}", normalized, e.getMessage());
+            }
+        });
+    }
+
+    static List<String> literals(String normalizedQuestion) {
+        List<String> literals = new ArrayList<>();
+        Matcher matcher = LITERAL.matcher(normalizedQuestion);
+        while (matcher.find()) {
+            literals.add(matcher.group());
+        }
+        Collections.sort(literals);
+        return literals;
+    }
+
+    public void invalidate(Integer connectionId) {
+        fingerprints.remove(connectionId);
+        exactMatches.asMap().keySet().removeIf(key -> key.connectionId().equals(connectionId));
+        vectorStore().delete(namespace(connectionId));
+    }
+
+    private void purgeIfSchemaChanged(SchemaModel schema) {
+        String previous = fingerprints.put(schema.getConnectionId(), schema.getFingerprint());
+        if (previous == null || previous.equals(schema.getFingerprint())) {
+            return;
+        }
+        log.info("Schema of connection {} changed, dropping its cached SQL", schema.getConnectionId());
+        exactMatches.asMap().keySet().removeIf(key -> key.connectionId().equals(schema.getConnectionId())
+                && !key.fingerprint().equals(schema.getFingerprint()));
+        vectorStore().delete(namespace(schema.getConnectionId())
+                + " && schemaFingerprint != '" + schema.getFingerprint() + "'");
+    }
+
+    private String namespace(Integer connectionId) {
+        return "kind == 'sql-cache' && connectionId == " + connectionId;
+    }
+
+    // "Revenue  last month by region?" and "revenue last month by region" are the same question
+    static String normalize(String question) {
+        return question.trim()
+                .toLowerCase()
+                .replaceAll("\\s+", " ")
+                .replaceAll("[?.!;\\s]+$", "");
+    }
+
+    private VectorStore vectorStore() {
+        return vectorStores.forNamespace(VectorStores.SQL_CACHE);
+    }
+}
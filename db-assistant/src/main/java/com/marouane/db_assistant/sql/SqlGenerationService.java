@@ -1,45 +1,207 @@
 package com.marouane.db_assistant.sql;
 
+import com.marouane.db_assistant.common.SingleFlight;
 import com.marouane.db_assistant.database.ConnectionManager;
 import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.database.PoolKey;
+import com.marouane.db_assistant.database.SchemaModel;
 import com.marouane.db_assistant.database.SchemaService;
-import com.marouane.db_assistant.message.ChatMessageRequestDto;
+import com.marouane.db_assistant.governance.GovernanceChecker;
+import com.marouane.db_assistant.governance.GovernanceStage;
+import com.marouane.db_assistant.governance.GovernanceViolation;
+import com.marouane.db_assistant.llm.LlmCallScheduler;
 import com.marouane.db_assistant.message.ChatMessageService;
 import com.marouane.db_assistant.message.SenderType;
+import com.marouane.db_assistant.rag.GovernanceContextProvider;
+import com.marouane.db_assistant.rag.SchemaRetrievalService;
+import com.marouane.db_assistant.rag.VectorStores;
 import com.marouane.db_assistant.user.User;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.sql.DataSource;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+@Slf4j
 @Service
 public class SqlGenerationService {
     private final ChatClient chatClient;
     private final SchemaService schemaService;
     private final ConnectionManager connectionManager;
     private final ChatMessageService chatMessageService;
+    private final SchemaRetrievalService schemaRetrievalService;
+    private final SqlGenerationCache generationCache;
+    private final LlmCallScheduler llmCallScheduler;
+    private final GovernanceChecker governanceChecker;
+    private final SqlAnalyzer sqlAnalyzer;
+    // null when the rules reach the model through the vector store advisor, or not at all
+    private final GovernanceContextProvider governanceContextProvider;
+    private final SingleFlight<InFlightQuestion, String> inFlightQuestions = new SingleFlight<>();
 
-    public SqlGenerationService(ChatClient.Builder builder, SchemaService schemaService, ConnectionManager connectionManager, ChatMessageService chatMessageService, VectorStore governanceVectorStore) {
-        this.chatClient = builder
-                .defaultAdvisors(new QuestionAnswerAdvisor(governanceVectorStore))
-                .build();
+    public SqlGenerationService(ChatClient.Builder builder, SchemaService schemaService, ConnectionManager connectionManager, ChatMessageService chatMessageService, VectorStores vectorStores, SchemaRetrievalService schemaRetrievalService, SqlGenerationCache generationCache, LlmCallScheduler llmCallScheduler, GovernanceChecker governanceChecker, SqlAnalyzer sqlAnalyzer, GovernanceContextProvider governanceContextProvider,
+                                @Value("${application.governance.advisor.enabled}") boolean governanceAdvisorEnabled,
+                                @Value("${application.governance.context.source}") String governanceContextSource) {
+        // the rules are enforced on the generated SQL either way, the context only steers the model towards them
+        boolean fromMemory = "memory".equalsIgnoreCase(governanceContextSource);
+        if (governanceAdvisorEnabled && !fromMemory) {
+            builder.defaultAdvisors(QuestionAnswerAdvisor.builder(vectorStores.forNamespace(VectorStores.GOVERNANCE))
+                    // the store also holds schema documents, only the rules are advice
+                    .searchRequest(SearchRequest.builder().filterExpression("kind == 'governance'").build())
+                    .build());
+        }
+        this.chatClient = builder.build();
         this.schemaService = schemaService;
         this.connectionManager = connectionManager;
         this.chatMessageService = chatMessageService;
+        this.schemaRetrievalService = schemaRetrievalService;
+        this.generationCache = generationCache;
+        this.llmCallScheduler = llmCallScheduler;
+        this.governanceChecker = governanceChecker;
+        this.sqlAnalyzer = sqlAnalyzer;
+        this.governanceContextProvider = governanceAdvisorEnabled && fromMemory ? governanceContextProvider : null;
     }
 
     public String generateSqlFromQuestion(Authentication connectedUser, String question) {
         User user = (User) connectedUser.getPrincipal();
         DataSource dataSource = connectionManager.getActiveDataSource(user.getId());
         DatabaseConnection connection = connectionManager.getActiveConnection(user.getId());
-        String schemaInfo = schemaService.extractSchemaInfo(dataSource);
+        SchemaModel schema = schemaService.getSchema(connection, dataSource);
 
-        String systemPrompt = """
+        Optional<String> cached = generationCache.lookup(schema, question);
+        if (cached.isPresent()) {
+            saveExchange(question, cached.get(), connection, connectedUser);
+            return cached.get();
+        }
+
+        // the same question asked about the same database and schema while it is being answered waits for that
+        // answer, whichever user asked it; the connection was resolved for this user, so only their own is joined
+        AtomicBoolean askedHere = new AtomicBoolean();
+        String llmResponse = inFlightQuestions.run(
+                new InFlightQuestion(PoolKey.of(connection), schema.getFingerprint(), SqlGenerationCache.normalize(question)),
+                () -> {
+                    askedHere.set(true);
+                    return askModel(connectedUser, user, schema, question);
+                });
+
+        if (askedHere.get()) {
+            complete(schema, question, llmResponse, connection, connectedUser);
+        } else {
+            saveExchange(question, llmResponse, connection, connectedUser);
+        }
+        return llmResponse;
+    }
+
+    private record InFlightQuestion(PoolKey target, String schemaFingerprint, String question) {
+    }
+
+    private String askModel(Authentication connectedUser, User user, SchemaModel schema, String question) {
+        String schemaInfo = schemaRetrievalService.schemaContext(schema, question);
+
+        String systemPrompt = buildSystemPrompt(schemaInfo, question);
+
+        // --- Generate SQL with LLM ---
+        try (LlmCallScheduler.Permit permit = llmCallScheduler.acquire(connectedUser, user.getId())) {
+            return enforceGovernance(chatClient.prompt()
+                    .system(systemPrompt)
+                    .user(question)
+                    .call()
+                    .content());
+        }
+    }
+
+    /**
+     * Replaces generated SQL that breaks a blocking governance rule with CANNOT_ANSWER,
+     * so it is neither cached nor handed back to the user.
+     */
+    private String enforceGovernance(String sql) {
+        return enforceGovernance(sql, violations(sql));
+    }
+
+    private String enforceGovernance(String sql, List<GovernanceViolation> violations) {
+        if (GovernanceChecker.isBlocked(violations)) {
+            log.warn("Generated SQL rejected by governance rules {}: {}", violations, sql);
+            return "CANNOT_ANSWER";
+        }
+        return sql;
+    }
+
+    private List<GovernanceViolation> violations(String sql) {
+        if (sql == null || sql.trim().equals("CANNOT_ANSWER")) {
+            return List.of();
+        }
+        return governanceChecker.check(sqlAnalyzer.analyze(sql), GovernanceStage.GENERATION);
+    }
+
+    /**
+     * Same as {@link #generateSqlFromQuestion} but emits the answer chunk by chunk as the model produces it.
+     * The chunks are for display only: the last event carries the verdict on the whole answer, the SQL that
+     * passed the governance checks or CANNOT_ANSWER with the violated rules, and only that SQL is run.
+     * The exchange is saved once the model finished; a cancelled or failed generation saves nothing.
+     */
+    public Flux<SqlStreamEvent> streamSqlFromQuestion(Authentication connectedUser, String question) {
+        User user = (User) connectedUser.getPrincipal();
+        DataSource dataSource = connectionManager.getActiveDataSource(user.getId());
+        DatabaseConnection connection = connectionManager.getActiveConnection(user.getId());
+        SchemaModel schema = schemaService.getSchema(connection, dataSource);
+
+        Optional<String> cached = generationCache.lookup(schema, question);
+        if (cached.isPresent()) {
+            saveExchange(question, cached.get(), connection, connectedUser);
+            return Flux.just(SqlStreamEvent.token(cached.get()), SqlStreamEvent.done(new SqlResponseDto(cached.get())));
+        }
+
+        String systemPrompt = buildSystemPrompt(schemaRetrievalService.schemaContext(schema, question), question);
+
+        // the slot is held until the stream completes, fails or is cancelled
+        LlmCallScheduler.Permit permit = llmCallScheduler.acquire(connectedUser, user.getId());
+        try {
+            StringBuilder answer = new StringBuilder();
+            return chatClient.prompt()
+                    .system(systemPrompt)
+                    .user(question)
+                    .stream()
+                    .content()
+                    .doOnNext(answer::append)
+                    .map(SqlStreamEvent::token)
+                    // subscribed once the model finished: the verdict covers the whole answer
+                    .concatWith(Mono.fromCallable(() -> {
+                        String sql = answer.toString();
+                        List<GovernanceViolation> violations = violations(sql);
+                        String checked = enforceGovernance(sql, violations);
+                        complete(schema, question, checked, connection, connectedUser);
+                        return SqlStreamEvent.done(new SqlResponseDto(checked, violations));
+                    }))
+                    .doFinally(signal -> permit.close());
+        } catch (RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    private void complete(SchemaModel schema, String question, String llmResponse, DatabaseConnection connection, Authentication connectedUser) {
+        if (llmResponse != null && !llmResponse.trim().equals("CANNOT_ANSWER")) {
+            generationCache.put(schema, question, llmResponse);
+        }
+        saveExchange(question, llmResponse, connection, connectedUser);
+    }
+
+    private String buildSystemPrompt(String schemaInfo, String question) {
+        String governanceRules = governanceContextProvider != null
+                ? "# SAFETY AND GOVERNANCE RULES:\n" + governanceContextProvider.context(question) + "\n\n"
+                : "";
+        return """
 You are a STRICT SQL GENERATOR. Your ONLY purpose is to generate valid SQL queries based on the provided database schema.
 
+%s
 # ABSOLUTE RULES:
 1. OUTPUT ONLY RAW SQL CODE - NOTHING ELSE
 2. NEVER include:
@@ -99,30 +261,11 @@ User: "please" → CANNOT_ANSWER
 # REMEMBER: YOUR OUTPUT WILL BE EXECUTED DIRECTLY AGAINST THE DATABASE. ANY NON-SQL TEXT WILL CAUSE ERRORS.
 IF YOU DEVIATE FROM THESE RULES, THE DATABASE WILL FAIL AND USERS WILL BE ANGRY.
 YOU ARE NOT A CHATBOT. YOU ARE AN SQL GENERATION TOOL. ONLY RESPOND TO DATABASE QUERIES.
-""".formatted(schemaInfo);
-
-       // --- Save user question ---
-        chatMessageService.saveMessage(
-                new ChatMessageRequestDto(SenderType.USER, question),
-                connection,
-                connectedUser
-        );
-
-        // --- Generate SQL with LLM ---
-        String llmResponse = chatClient.prompt()
-                .system(systemPrompt)
-                .user(question)
-                .call()
-                .content();
-
-        // --- Save assistant response ---
-        chatMessageService.saveMessage(
-                new ChatMessageRequestDto(SenderType.ASSISTANT, llmResponse),
-                connection,
-                connectedUser
-        );
-
+""".formatted(governanceRules, schemaInfo);
+    }
 
-        return llmResponse;
+    private void saveExchange(String question, String answer, DatabaseConnection connection, Authentication connectedUser) {
+        chatMessageService.recordMessage(SenderType.USER, question, connection, connectedUser);
+        chatMessageService.recordMessage(SenderType.ASSISTANT, answer, connection, connectedUser);
     }
 }
@@ -11,4 +11,5 @@ import lombok.Setter;
 @NoArgsConstructor
 public class SqlRequest {
     private String sql;
+    private ResultFormat format = ResultFormat.ROWS;
 }
@@ -1,10 +1,13 @@
 package com.marouane.db_assistant.sql;
 
+import com.marouane.db_assistant.governance.GovernanceViolation;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.List;
+
 @Getter
 @Setter
 @AllArgsConstructor
@@ -12,8 +15,15 @@ import lombok.Setter;
 public class SqlResponseDto {
     private String sql;
     private String error;
+    // the governance rules the SQL broke, set on the final event of a streamed generation
+    private List<GovernanceViolation> violations;
 
     public SqlResponseDto(String sql) {
         this.sql = sql;
     }
+
+    public SqlResponseDto(String sql, List<GovernanceViolation> violations) {
+        this.sql = sql;
+        this.violations = violations;
+    }
 }
@@ -0,0 +1,16 @@
+package com.marouane.db_assistant.sql;
+
+/**
+ * One event of a streamed generation: a chunk of the model's answer as it arrives, or the final
+ * result once the whole answer went through the governance checks.
+ */
+public record SqlStreamEvent(String token, SqlResponseDto done) {
+
+    public static SqlStreamEvent token(String token) {
+        return new SqlStreamEvent(token, null);
+    }
+
+    public static SqlStreamEvent done(SqlResponseDto done) {
+        return new SqlStreamEvent(null, done);
+    }
+}
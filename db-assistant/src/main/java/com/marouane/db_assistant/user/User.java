@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.marouane.db_assistant.message.ChatMessage;
 import com.marouane.db_assistant.role.Role;
 import com.marouane.db_assistant.sql.QueryHistory;
+import com.marouane.db_assistant.security.UserCacheEvictionListener;
 import jakarta.persistence.*;
 import lombok.*;
 import org.springframework.security.core.GrantedAuthority;
@@ -22,6 +23,7 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
+@EntityListeners(UserCacheEvictionListener.class)
 @Table(name = "_user")
 public class User implements UserDetails, Principal {
     @Id
@@ -0,0 +1,55 @@
+package com.marouane.db_assistant.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeysetCursorTest {
+
+    private static String token(String content) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decodeReadsBackWhatEncodeWrote() {
+        KeysetCursor cursor = new KeysetCursor(LocalDateTime.of(2025, 3, 14, 9, 26, 53, 589_793_000), 42);
+        // LocalDateTime drops zero seconds from its text, the parser accepts that form
+        KeysetCursor onTheMinute = new KeysetCursor(LocalDateTime.of(2025, 1, 1, 0, 0), 1);
+
+        assertThat(KeysetCursor.decode(cursor.encode())).isEqualTo(cursor);
+        assertThat(KeysetCursor.decode(onTheMinute.encode())).isEqualTo(onTheMinute);
+        // safe to pass in a query string as is
+        assertThat(cursor.encode()).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void rowsOfTheSameInstantGetDifferentCursors() {
+        LocalDateTime instant = LocalDateTime.of(2025, 3, 14, 9, 26);
+
+        assertThat(new KeysetCursor(instant, 1).encode()).isNotEqualTo(new KeysetCursor(instant, 2).encode());
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        for (String cursor : new String[]{"", "not base64!", token("2025-03-14T09:26"), token("|42")}) {
+            assertThatThrownBy(() -> KeysetCursor.decode(cursor))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid cursor");
+        }
+    }
+
+    @Test
+    void tamperedCursorsAreRejected() {
+        for (String cursor : new String[]{token("2025-03-14T09:26|42 OR 1=1"), token("yesterday|42"),
+                token("2025-13-14T09:26|42"), token("2025-03-14T09:26|99999999999")}) {
+            assertThatThrownBy(() -> KeysetCursor.decode(cursor))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.marouane.db_assistant.common;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeysetPagerTest {
+    private static final LocalDateTime NOON = LocalDateTime.of(2025, 3, 14, 12, 0);
+    private static final Comparator<Row> ORDER = Comparator.comparing(Row::time).thenComparing(Row::id);
+
+    // rows 2, 3 and 4 were written in the same instant
+    private final List<Row> rows = List.of(
+            new Row(NOON.minusMinutes(2), 1),
+            new Row(NOON, 2),
+            new Row(NOON, 3),
+            new Row(NOON, 4),
+            new Row(NOON.plusMinutes(1), 5),
+            new Row(NOON.plusMinutes(2), 6));
+
+    private final KeysetPager pager = new KeysetPager();
+    private final AtomicReference<Limit> requested = new AtomicReference<>();
+
+    private record Row(LocalDateTime time, int id) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(pager, "defaultPageSize", 50);
+        ReflectionTestUtils.setField(pager, "maxPageSize", 200);
+    }
+
+    // the three queries as the repositories write them: (time, id) compared as a pair
+    private PageResponse<Row> page(String before, String after, Integer size, boolean oldestFirst) {
+        return pager.page(before, after, size, oldestFirst,
+                limit -> {
+                    requested.set(limit);
+                    return rows.stream().sorted(ORDER.reversed()).limit(limit.max()).toList();
+                },
+                (cursor, limit) -> rows.stream()
+                        .filter(row -> ORDER.compare(row, new Row(cursor.time(), cursor.id())) < 0)
+                        .sorted(ORDER.reversed()).limit(limit.max()).toList(),
+                (cursor, limit) -> rows.stream()
+                        .filter(row -> ORDER.compare(row, new Row(cursor.time(), cursor.id())) > 0)
+                        .sorted(ORDER).limit(limit.max()).toList(),
+                row -> new KeysetCursor(row.time(), row.id()));
+    }
+
+    private static List<Integer> ids(PageResponse<Row> page) {
+        return page.getItems().stream().map(Row::id).toList();
+    }
+
+    @Test
+    void walkingBackListsEveryRowOnceEvenWhenTimestampsTie() {
+        List<List<Integer>> pages = new ArrayList<>();
+        PageResponse<Row> page = page(null, null, 2, false);
+        pages.add(ids(page));
+        while (page.isHasMore()) {
+            page = page(page.getBefore(), null, 2, false);
+            pages.add(ids(page));
+        }
+
+        assertThat(pages).containsExactly(List.of(6, 5), List.of(4, 3), List.of(2, 1));
+    }
+
+    @Test
+    void walkingForwardFromTheOldestPageListsEveryNewerRowOnce() {
+        PageResponse<Row> oldest = page(new KeysetCursor(NOON, 3).encode(), null, 2, false);
+        assertThat(ids(oldest)).containsExactly(2, 1);
+
+        PageResponse<Row> newer = page(null, oldest.getAfter(), 2, false);
+        assertThat(ids(newer)).containsExactly(4, 3);
+        assertThat(newer.isHasMore()).isTrue();
+
+        PageResponse<Row> newest = page(null, newer.getAfter(), 2, false);
+        assertThat(ids(newest)).containsExactly(6, 5);
+        assertThat(newest.isHasMore()).isFalse();
+    }
+
+    @Test
+    void oldestFirstPagesReadTopToBottom() {
+        PageResponse<Row> latest = page(null, null, 3, true);
+
+        assertThat(ids(latest)).containsExactly(4, 5, 6);
+        assertThat(latest.isHasMore()).isTrue();
+        assertThat(KeysetCursor.decode(latest.getBefore()).id()).isEqualTo(4);
+        assertThat(KeysetCursor.decode(latest.getAfter()).id()).isEqualTo(6);
+
+        assertThat(ids(page(latest.getBefore(), null, 3, true))).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void anEmptyPageHasNoCursors() {
+        PageResponse<Row> page = page(null, new KeysetCursor(NOON.plusMinutes(2), 6).encode(), 2, false);
+
+        assertThat(page.getItems()).isEmpty();
+        assertThat(page.getBefore()).isNull();
+        assertThat(page.getAfter()).isNull();
+        assertThat(page.isHasMore()).isFalse();
+    }
+
+    @Test
+    void pageSizeIsClampedAndOneExtraRowIsFetched() {
+        page(null, null, null, false);
+        assertThat(requested.get().max()).isEqualTo(51);
+
+        page(null, null, 0, false);
+        assertThat(requested.get().max()).isEqualTo(2);
+
+        page(null, null, -5, false);
+        assertThat(requested.get().max()).isEqualTo(2);
+
+        page(null, null, 10_000, false);
+        assertThat(requested.get().max()).isEqualTo(201);
+    }
+}
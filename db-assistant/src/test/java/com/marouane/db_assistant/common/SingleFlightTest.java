@@ -0,0 +1,126 @@
+package com.marouane.db_assistant.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+    private final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // runs the computation on its own thread, where it blocks until released
+    private CompletableFuture<Integer> leader(SingleFlight.Computation<Integer, Exception> result) throws InterruptedException {
+        CompletableFuture<Integer> leader = call(() -> {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await();
+            return result.compute();
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        return leader;
+    }
+
+    private CompletableFuture<Integer> call(SingleFlight.Computation<Integer, Exception> computation) {
+        return call(computation, new ArrayList<>());
+    }
+
+    private CompletableFuture<Integer> call(SingleFlight.Computation<Integer, Exception> computation, List<Thread> threads) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        threads.add(Thread.ofPlatform().start(() -> {
+            try {
+                future.complete(singleFlight.run("key", computation));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }));
+        return future;
+    }
+
+    // returns once every caller parked on the leader's result
+    private List<CompletableFuture<Integer>> joiners(int count) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<CompletableFuture<Integer>> joiners = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            joiners.add(call(() -> {
+                runs.incrementAndGet();
+                return -1;
+            }, threads));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!threads.stream().allMatch(thread -> thread.getState() == Thread.State.WAITING)) {
+            assertThat(System.nanoTime()).as("joiners not parked in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        return joiners;
+    }
+
+    private static Throwable failureOf(CompletableFuture<Integer> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("the call did not fail");
+    }
+
+    @Test
+    void concurrentDuplicatesRunOnce() throws Exception {
+        CompletableFuture<Integer> leader = leader(() -> 42);
+        List<CompletableFuture<Integer>> joiners = joiners(5);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo(42);
+        for (CompletableFuture<Integer> joiner : joiners) {
+            assertThat(joiner.get(5, TimeUnit.SECONDS)).isEqualTo(42);
+        }
+        assertThat(runs).hasValue(1);
+    }
+
+    @Test
+    void theLeadersFailureReachesTheWaiters() throws Exception {
+        SQLException failure = new SQLException("connection reset");
+        CompletableFuture<Integer> leader = leader(() -> {
+            throw failure;
+        });
+        List<CompletableFuture<Integer>> joiners = joiners(3);
+        release.countDown();
+
+        assertThat(failureOf(leader)).isSameAs(failure);
+        for (CompletableFuture<Integer> joiner : joiners) {
+            assertThat(failureOf(joiner)).isSameAs(failure);
+        }
+        assertThat(runs).hasValue(1);
+    }
+
+    @Test
+    void theKeyIsFreeOnceTheComputationFinished() throws Exception {
+        assertThat(singleFlight.run("key", () -> 1)).isEqualTo(1);
+        assertThat(singleFlight.run("key", () -> 2)).isEqualTo(2);
+
+        assertThatThrownBy(() -> singleFlight.run("key", () -> {
+            throw new IllegalStateException("boom");
+        })).hasMessage("boom");
+        assertThat(singleFlight.run("key", () -> 3)).isEqualTo(3);
+    }
+
+    @Test
+    void differentKeysDoNotWaitForEachOther() throws Exception {
+        CompletableFuture<Integer> leader = leader(() -> 1);
+
+        assertThat(singleFlight.run("other", () -> 2)).isEqualTo(2);
+        release.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+    }
+}
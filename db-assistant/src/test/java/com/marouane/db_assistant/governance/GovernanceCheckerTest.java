@@ -0,0 +1,115 @@
+package com.marouane.db_assistant.governance;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marouane.db_assistant.sql.SqlAnalyzer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GovernanceCheckerTest {
+    private final SqlAnalyzer analyzer = new SqlAnalyzer(100);
+    private GovernanceChecker checker;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        checker = new GovernanceChecker(new ObjectMapper());
+        ReflectionTestUtils.setField(checker, "rulesFile", new ClassPathResource("docs/sql_governance_rules.json"));
+        checker.loadRules();
+    }
+
+    private List<GovernanceViolation> check(String sql, GovernanceStage stage) {
+        return checker.check(analyzer.analyze(sql), stage);
+    }
+
+    private List<String> ruleIds(String sql) {
+        return check(sql, GovernanceStage.EXECUTION).stream().map(GovernanceViolation::ruleId).toList();
+    }
+
+    @Test
+    void deleteWithoutWhereIsBlocked() {
+        List<GovernanceViolation> violations = check("DELETE FROM orders", GovernanceStage.EXECUTION);
+
+        assertThat(GovernanceChecker.isBlocked(violations)).isTrue();
+        assertThat(violations).extracting(GovernanceViolation::ruleId).containsExactly("1.1");
+    }
+
+    @Test
+    void trivialWhereIsBlocked() {
+        assertThat(GovernanceChecker.isBlocked(check("UPDATE orders SET status = 'x' WHERE 1 = 1", GovernanceStage.EXECUTION))).isTrue();
+    }
+
+    @Test
+    void scopedDeleteIsAllowed() {
+        assertThat(check("DELETE FROM orders WHERE id = 42", GovernanceStage.EXECUTION)).isEmpty();
+    }
+
+    @Test
+    void everyStatementOfAScriptIsChecked() {
+        List<GovernanceViolation> violations = check("SELECT 1; TRUNCATE orders", GovernanceStage.EXECUTION);
+
+        assertThat(violations).extracting(GovernanceViolation::ruleId).contains("1.3");
+        assertThat(GovernanceChecker.isBlocked(violations)).isTrue();
+    }
+
+    @Test
+    void unparsableSqlIsBlockedAtBothStages() {
+        assertThat(GovernanceChecker.isBlocked(check("SELECT FROM FROM", GovernanceStage.GENERATION))).isTrue();
+        assertThat(GovernanceChecker.isBlocked(check("SELECT FROM FROM", GovernanceStage.EXECUTION))).isTrue();
+    }
+
+    @Test
+    void dropIsOnlyBlockedForGeneratedSql() {
+        assertThat(GovernanceChecker.isBlocked(check("DROP TABLE orders", GovernanceStage.GENERATION))).isTrue();
+        assertThat(GovernanceChecker.isBlocked(check("DROP TABLE orders", GovernanceStage.EXECUTION))).isFalse();
+    }
+
+    @Test
+    void cascadeIsBlocked() {
+        assertThat(GovernanceChecker.isBlocked(check("DROP TABLE orders CASCADE", GovernanceStage.EXECUTION))).isTrue();
+        assertThat(GovernanceChecker.isBlocked(check("TRUNCATE orders CASCADE", GovernanceStage.EXECUTION))).isTrue();
+        assertThat(GovernanceChecker.isBlocked(check("ALTER TABLE orders DROP COLUMN status CASCADE", GovernanceStage.EXECUTION))).isTrue();
+    }
+
+    @Test
+    void cascadeInAnIdentifierIsNotTheCascadeOption() {
+        assertThat(check("DROP TABLE cascade_log", GovernanceStage.EXECUTION)).isEmpty();
+        assertThat(check("ALTER TABLE orders DROP COLUMN cascade_flag", GovernanceStage.EXECUTION)).isEmpty();
+    }
+
+    @Test
+    void systemSchemaWritesAreBlocked() {
+        List<GovernanceViolation> violations = check(
+                "UPDATE pg_catalog.pg_class SET relname = 'x' WHERE oid = 1", GovernanceStage.EXECUTION);
+
+        assertThat(violations).extracting(GovernanceViolation::ruleId).containsExactly("1.10");
+    }
+
+    @Test
+    void styleRulesOnlyWarn() {
+        List<GovernanceViolation> violations = check("SELECT * FROM orders, customers", GovernanceStage.EXECUTION);
+
+        assertThat(violations).extracting(GovernanceViolation::ruleId).contains("2.1", "3.9");
+        assertThat(GovernanceChecker.isBlocked(violations)).isFalse();
+    }
+
+    @Test
+    void styleRulesLookIntoEveryBranchAndSubquery() {
+        assertThat(ruleIds("SELECT id FROM orders UNION SELECT * FROM archived_orders")).contains("2.1");
+        assertThat(ruleIds("WITH recent AS (SELECT * FROM orders) SELECT id FROM recent")).contains("2.1");
+        assertThat(ruleIds("SELECT id FROM (SELECT * FROM orders) o")).contains("2.1");
+        assertThat(ruleIds("(SELECT * FROM orders)")).contains("2.1");
+        assertThat(ruleIds("SELECT id FROM customers WHERE id IN (SELECT o.customer_id FROM orders o, items i)")).contains("3.9");
+        assertThat(ruleIds("SELECT id FROM customers c WHERE EXISTS (SELECT 1 FROM orders CROSS JOIN items)")).contains("2.11");
+    }
+
+    @Test
+    void explicitColumnsAndJoinsRaiseNoStyleWarning() {
+        assertThat(ruleIds("SELECT o.id FROM orders o JOIN customers c ON c.id = o.customer_id "
+                + "WHERE o.id IN (SELECT order_id FROM items) UNION SELECT id FROM archived_orders")).isEmpty();
+    }
+}
@@ -0,0 +1,144 @@
+package com.marouane.db_assistant.llm;
+
+import com.marouane.db_assistant.exception.LlmCapacityException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmCallSchedulerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // the buckets barely refill during a test
+    private LlmCallScheduler scheduler(int maxConcurrent, int maxQueueDepth, long maxWait, double burst) {
+        return new LlmCallScheduler(meterRegistry, maxConcurrent, maxQueueDepth, maxWait, burst, 0.001,
+                Map.of("USER", 1, "ADMIN", 2));
+    }
+
+    private static Authentication user(String role) {
+        return new TestingAuthenticationToken("someone", null, role);
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void assertRejected(Runnable call, HttpStatus status) {
+        assertThatThrownBy(call::run)
+                .isInstanceOfSatisfying(LlmCapacityException.class, e -> assertThat(e.getStatus()).isEqualTo(status));
+    }
+
+    @Test
+    void callsBeyondTheBurstAreRateLimited() {
+        LlmCallScheduler scheduler = scheduler(4, 10, 1000, 2);
+
+        scheduler.acquire(user("USER"), 1).close();
+        scheduler.acquire(user("USER"), 1).close();
+
+        assertRejected(() -> scheduler.acquire(user("USER"), 1), HttpStatus.TOO_MANY_REQUESTS);
+        // another user has their own bucket
+        scheduler.acquire(user("USER"), 2).close();
+    }
+
+    @Test
+    void aFullQueueDoesNotCostRateBudget() {
+        LlmCallScheduler scheduler = scheduler(1, 0, 1000, 1);
+        LlmCallScheduler.Permit holder = scheduler.acquire(user("USER"), 1);
+
+        assertRejected(() -> scheduler.acquire(user("USER"), 2), HttpStatus.TOO_MANY_REQUESTS);
+        holder.close();
+
+        // the retry the rejection asks for goes through on the user's only token
+        scheduler.acquire(user("USER"), 2).close();
+    }
+
+    @Test
+    void noMoreThanMaxConcurrentCallsRun() throws Exception {
+        LlmCallScheduler scheduler = scheduler(2, 10, 5000, 10);
+        LlmCallScheduler.Permit first = scheduler.acquire(user("USER"), 1);
+        LlmCallScheduler.Permit second = scheduler.acquire(user("USER"), 2);
+
+        CompletableFuture<LlmCallScheduler.Permit> third =
+                CompletableFuture.supplyAsync(() -> scheduler.acquire(user("USER"), 3), executor);
+        await(() -> gauge("llm.scheduler.queue.depth") == 1);
+        assertThat(third).isNotDone();
+        assertThat(gauge("llm.scheduler.active")).isEqualTo(2);
+
+        first.close();
+        LlmCallScheduler.Permit granted = third.get(5, TimeUnit.SECONDS);
+        assertThat(gauge("llm.scheduler.active")).isEqualTo(2);
+
+        second.close();
+        granted.close();
+        assertThat(gauge("llm.scheduler.active")).isZero();
+    }
+
+    @Test
+    void slotsAreSharedInProportionToTheRoleWeights() throws Exception {
+        LlmCallScheduler scheduler = scheduler(1, 10, 5000, 10);
+        LlmCallScheduler.Permit holder = scheduler.acquire(user("USER"), 99);
+
+        // the light user queues first, the heavy one (weight 2) still gets two slots for each of theirs
+        List<String> granted = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        List<String> arrivals = List.of("light", "light", "light", "heavy", "heavy", "heavy", "heavy");
+        for (String label : arrivals) {
+            boolean heavy = label.equals("heavy");
+            calls.add(CompletableFuture.runAsync(() -> {
+                try (LlmCallScheduler.Permit permit = scheduler.acquire(user(heavy ? "ADMIN" : "USER"), heavy ? 2 : 1)) {
+                    granted.add(label);
+                }
+            }, executor));
+            int queued = calls.size();
+            await(() -> gauge("llm.scheduler.queue.depth") == queued);
+        }
+
+        holder.close();
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        assertThat(granted).containsExactly("heavy", "light", "heavy", "heavy", "light", "heavy", "light");
+    }
+
+    @Test
+    void aWaiterThatTimedOutLeavesTheQueue() {
+        LlmCallScheduler scheduler = scheduler(1, 10, 100, 10);
+        LlmCallScheduler.Permit holder = scheduler.acquire(user("USER"), 1);
+
+        assertRejected(() -> scheduler.acquire(user("USER"), 2), HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(gauge("llm.scheduler.queue.depth")).isZero();
+
+        // the slot is not handed to the waiter that gave up
+        holder.close();
+        assertThat(gauge("llm.scheduler.active")).isZero();
+        scheduler.acquire(user("USER"), 2).close();
+    }
+}
@@ -0,0 +1,183 @@
+package com.marouane.db_assistant.persistence;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.message.ChatMessage;
+import com.marouane.db_assistant.message.ChatMessageRepository;
+import com.marouane.db_assistant.message.SenderType;
+import com.marouane.db_assistant.sql.QueryHistoryRepository;
+import com.marouane.db_assistant.user.User;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WriteBehindPersisterTest {
+    private final User user = User.builder().id(1).build();
+    private final DatabaseConnection connection = DatabaseConnection.builder().id(7).build();
+
+    private final ChatMessageRepository chatMessageRepository = mock(ChatMessageRepository.class);
+    private final QueryHistoryRepository queryHistoryRepository = mock(QueryHistoryRepository.class);
+    private final EntityManager entityManager = mock(EntityManager.class);
+    // contents of the messages whose transaction went through
+    private final List<String> committed = new CopyOnWriteArrayList<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+
+    @TempDir
+    Path tempDir;
+    private WriteBehindPersister persister;
+
+    @BeforeEach
+    void setUp() {
+        when(entityManager.getReference(User.class, 1)).thenReturn(user);
+        when(entityManager.getReference(DatabaseConnection.class, 7)).thenReturn(connection);
+
+        // behaves like Spring Data over a SEQUENCE id: ids are handed out before the insert fails,
+        // and saving an entity that already has one is a merge of a row that does not exist
+        when(chatMessageRepository.saveAll(any())).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<ChatMessage> messages = (List<ChatMessage>) invocation.getArgument(0, Iterable.class);
+            if (databaseDown.get()) {
+                throw new DataAccessResourceFailureException("connection refused");
+            }
+            batchSizes.add(messages.size());
+            for (ChatMessage message : messages) {
+                if (message.getId() != null) {
+                    throw new ObjectOptimisticLockingFailureException(ChatMessage.class, message.getId());
+                }
+                message.setId(sequence.incrementAndGet());
+                if (message.getContent().startsWith("bad")) {
+                    throw new DataIntegrityViolationException("violates foreign key constraint");
+                }
+            }
+            messages.forEach(message -> committed.add(message.getContent()));
+            return messages;
+        });
+
+        persister = startPersister();
+    }
+
+    private WriteBehindPersister startPersister() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        WriteBehindPersister started = new WriteBehindPersister(chatMessageRepository, queryHistoryRepository,
+                new TransactionTemplate(transactionManager), entityManager, JsonMapper.builder().findAndAddModules().build());
+        ReflectionTestUtils.setField(started, "queueCapacity", 100);
+        ReflectionTestUtils.setField(started, "batchSize", 10);
+        ReflectionTestUtils.setField(started, "flushInterval", 50L);
+        ReflectionTestUtils.setField(started, "spillFile", spillFile());
+        started.start();
+        return started;
+    }
+
+    private Path spillFile() {
+        return tempDir.resolve("spill.jsonl");
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        persister.shutdown();
+    }
+
+    private ChatMessage message(String content) {
+        ChatMessage message = new ChatMessage();
+        message.setUser(user);
+        message.setConnection(connection);
+        message.setSender(SenderType.USER);
+        message.setContent(content);
+        return message;
+    }
+
+    @Test
+    void oneBadRowDoesNotTakeTheRestOfItsBatchDown() {
+        persister.save(message("first"));
+        persister.save(message("bad"));
+        persister.save(message("second"));
+        persister.save(message("third"));
+        persister.flush();
+
+        assertThat(committed).containsExactlyInAnyOrder("first", "second", "third");
+        assertThat(spillFile()).doesNotExist();
+    }
+
+    @Test
+    void flushMakesEverySavedEntryVisibleInBatches() {
+        for (int i = 0; i < 25; i++) {
+            persister.save(message("message " + i));
+        }
+        persister.flush();
+
+        assertThat(committed).hasSize(25);
+        assertThat(batchSizes).allMatch(size -> size <= 10);
+    }
+
+    @Test
+    void unwritableEntriesAreSpilledAndReplayedOnTheNextStart() throws Exception {
+        databaseDown.set(true);
+        persister.save(message("first"));
+        persister.save(message("second"));
+        persister.flush();
+
+        assertThat(committed).isEmpty();
+        assertThat(Files.readAllLines(spillFile())).hasSize(2);
+
+        databaseDown.set(false);
+        persister.shutdown();
+        persister = startPersister();
+
+        assertThat(committed).containsExactlyInAnyOrder("first", "second");
+        assertThat(spillFile()).doesNotExist();
+    }
+
+    @Test
+    void shutdownWritesWhatIsStillQueued() throws InterruptedException {
+        for (int i = 0; i < 30; i++) {
+            persister.save(message("message " + i));
+        }
+        persister.shutdown();
+
+        assertThat(committed).hasSize(30);
+    }
+
+    @Test
+    void shutdownSpillsWhatItCannotWrite() throws Exception {
+        databaseDown.set(true);
+        for (int i = 0; i < 3; i++) {
+            persister.save(message("message " + i));
+        }
+        persister.shutdown();
+
+        assertThat(Files.readAllLines(spillFile())).hasSize(3);
+    }
+
+    @Test
+    void entriesSavedAfterShutdownAreWrittenRightAway() throws InterruptedException {
+        persister.shutdown();
+        persister.save(message("late"));
+
+        assertThat(committed).containsExactly("late");
+    }
+}
@@ -0,0 +1,141 @@
+package com.marouane.db_assistant.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InMemoryVectorStoreTest {
+    // the query points along the first axis, each text's similarity to it is its first coordinate
+    private static final Map<String, float[]> EMBEDDINGS = Map.of(
+            "query", new float[]{1, 0},
+            "orders table", new float[]{1, 0},
+            "sales orders table", new float[]{0.8f, 0.6f},
+            "never delete without where", new float[]{0, 1});
+
+    private final FilterExpressionBuilder b = new FilterExpressionBuilder();
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+
+    @TempDir
+    Path tempDir;
+    private InMemoryVectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        when(embeddingModel.embed(anyString())).thenAnswer(invocation -> EMBEDDINGS.get(invocation.<String>getArgument(0)));
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+                .map(EMBEDDINGS::get)
+                .toList());
+
+        store = newStore();
+        store.add(List.of(
+                document("orders", "orders table", Map.of("kind", "table", "schema", "public", "rows", 10)),
+                document("sales", "sales orders table", Map.of("kind", "table", "schema", "sales", "rows", 500)),
+                document("rule", "never delete without where", Map.of("kind", "governance"))));
+    }
+
+    private InMemoryVectorStore newStore() {
+        // a batch of two checks that documents are embedded across batches
+        return new InMemoryVectorStore("test", embeddingModel, new ObjectMapper(), tempDir.resolve("test.json"), 2);
+    }
+
+    private static Document document(String id, String text, Map<String, Object> metadata) {
+        return Document.builder().id(id).text(text).metadata(metadata).build();
+    }
+
+    private List<String> ids(FilterExpressionBuilder.Op filter) {
+        return ids(filter.build());
+    }
+
+    private List<String> ids(Filter.Expression filter) {
+        return store.documents(filter).stream().map(Document::getId).toList();
+    }
+
+    @Test
+    void equalityAndMembership() {
+        assertThat(ids(b.eq("kind", "table"))).containsExactlyInAnyOrder("orders", "sales");
+        assertThat(ids(b.ne("kind", "table"))).containsExactly("rule");
+        assertThat(ids(b.in("schema", "public", "sales"))).containsExactlyInAnyOrder("orders", "sales");
+        assertThat(ids(b.nin("schema", "sales"))).containsExactlyInAnyOrder("orders", "rule");
+        // numbers match by value whatever their boxed type
+        assertThat(ids(b.eq("rows", 500L))).containsExactly("sales");
+    }
+
+    @Test
+    void comparisonsSkipDocumentsWithoutTheKey() {
+        assertThat(ids(b.gt("rows", 100))).containsExactly("sales");
+        assertThat(ids(b.gte("rows", 500))).containsExactly("sales");
+        assertThat(ids(b.lt("rows", 100))).containsExactly("orders");
+        assertThat(ids(b.lte("rows", 10.0))).containsExactly("orders");
+        // a string is neither before nor after a number
+        assertThat(ids(b.gt("kind", 1))).isEmpty();
+    }
+
+    @Test
+    void logicalOperatorsAndGroups() {
+        assertThat(ids(b.and(b.eq("kind", "table"), b.lt("rows", 100)))).containsExactly("orders");
+        assertThat(ids(b.or(b.eq("schema", "sales"), b.eq("kind", "governance")))).containsExactlyInAnyOrder("sales", "rule");
+        assertThat(ids(b.not(b.eq("kind", "table")))).containsExactly("rule");
+        assertThat(ids(b.not(b.group(b.or(b.eq("schema", "sales"), b.eq("kind", "governance")))))).containsExactly("orders");
+    }
+
+    @Test
+    void textFiltersAreEvaluatedLikeBuiltOnes() {
+        FilterExpressionTextParser parser = new FilterExpressionTextParser();
+
+        assertThat(ids(parser.parse("kind == 'table' && rows >= 10"))).containsExactlyInAnyOrder("orders", "sales");
+        assertThat(ids(parser.parse("schema in ['sales'] || kind != 'table'"))).containsExactlyInAnyOrder("sales", "rule");
+    }
+
+    @Test
+    void searchReturnsTheTopKMostSimilarBestFirst() {
+        List<Document> hits = store.similaritySearch(SearchRequest.builder().query("query").topK(2).build());
+
+        assertThat(hits).extracting(Document::getId).containsExactly("orders", "sales");
+        assertThat(hits.get(0).getScore()).isCloseTo(1.0, within(1e-6));
+        assertThat(hits.get(1).getScore()).isCloseTo(0.8, within(1e-6));
+    }
+
+    @Test
+    void searchOnlyRanksDocumentsMatchingTheFilter() {
+        List<Document> hits = store.similaritySearch(SearchRequest.builder()
+                .query("query").topK(5).filterExpression(b.eq("schema", "sales").build()).build());
+
+        assertThat(hits).extracting(Document::getId).containsExactly("sales");
+    }
+
+    @Test
+    void aSnapshotIsLoadedBackWithoutReEmbedding() {
+        store.snapshotIfDirty();
+        clearInvocations(embeddingModel);
+
+        InMemoryVectorStore reloaded = newStore();
+        verify(embeddingModel, never()).embed(anyList());
+
+        assertThat(reloaded.size()).isEqualTo(3);
+        assertThat(reloaded.documents(b.gt("rows", 100).build())).extracting(Document::getId).containsExactly("sales");
+        assertThat(reloaded.similaritySearch(SearchRequest.builder().query("query").topK(1).build()))
+                .extracting(Document::getId)
+                .containsExactly("orders");
+    }
+}
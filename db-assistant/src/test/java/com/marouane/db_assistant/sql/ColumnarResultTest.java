@@ -0,0 +1,118 @@
+package com.marouane.db_assistant.sql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ColumnarResultTest {
+
+    // a result set over the given rows, getLong/getDouble return 0 for a null cell and set wasNull like a driver
+    private static ResultSet resultSet(List<String> names, List<Integer> types, List<Object[]> rows) throws SQLException {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            when(metaData.getColumnName(i + 1)).thenReturn(names.get(i));
+            when(metaData.getColumnType(i + 1)).thenReturn(types.get(i));
+        }
+
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metaData);
+        int[] row = {-1};
+        boolean[] wasNull = {false};
+        when(rs.next()).thenAnswer(invocation -> ++row[0] < rows.size());
+        when(rs.wasNull()).thenAnswer(invocation -> wasNull[0]);
+        when(rs.getObject(anyInt())).thenAnswer(invocation -> {
+            Object value = rows.get(row[0])[invocation.<Integer>getArgument(0) - 1];
+            wasNull[0] = value == null;
+            return value;
+        });
+        when(rs.getLong(anyInt())).thenAnswer(invocation -> {
+            Object value = rows.get(row[0])[invocation.<Integer>getArgument(0) - 1];
+            wasNull[0] = value == null;
+            return value == null ? 0L : ((Number) value).longValue();
+        });
+        when(rs.getDouble(anyInt())).thenAnswer(invocation -> {
+            Object value = rows.get(row[0])[invocation.<Integer>getArgument(0) - 1];
+            wasNull[0] = value == null;
+            return value == null ? 0.0 : ((Number) value).doubleValue();
+        });
+        return rs;
+    }
+
+    private static ColumnarResult orders() throws SQLException {
+        return ColumnarResult.read(resultSet(
+                List.of("id", "total", "discount", "status"),
+                List.of(Types.BIGINT, Types.DECIMAL, Types.DOUBLE, Types.VARCHAR),
+                List.of(new Object[]{1L, new BigDecimal("12.30"), 0.5, "paid"},
+                        new Object[]{null, null, null, null},
+                        new Object[]{0L, new BigDecimal("0.00"), 0.0, "open"})));
+    }
+
+    @Test
+    void nullsAreKeptApartFromZeroes() throws SQLException {
+        ColumnarResult result = orders();
+
+        assertThat(result.getColumns()).containsExactly("id", "total", "discount", "status");
+        assertThat(result.getRowCount()).isEqualTo(3);
+        for (int column = 0; column < 4; column++) {
+            assertThat(result.getVectors()[column].isNull(1)).isTrue();
+            assertThat(result.getValue(column, 1)).isNull();
+            assertThat(result.getVectors()[column].isNull(2)).isFalse();
+        }
+        assertThat(result.getValue(0, 0)).isEqualTo(1L);
+        assertThat(result.getValue(0, 2)).isEqualTo(0L);
+        assertThat(result.getValue(2, 0)).isEqualTo(0.5);
+        assertThat(result.getValue(2, 2)).isEqualTo(0.0);
+    }
+
+    @Test
+    void decimalsAreNotNarrowedToDoubles() throws SQLException {
+        ColumnarResult result = ColumnarResult.read(resultSet(
+                List.of("price", "amount"),
+                List.of(Types.DECIMAL, Types.NUMERIC),
+                List.<Object[]>of(new Object[]{new BigDecimal("0.10"), new BigDecimal("12345678901234567890.01")})));
+
+        for (ColumnVector vector : result.getVectors()) {
+            assertThat(vector).isInstanceOf(ColumnVector.ObjectVector.class);
+            assertThat(vector.type()).isEqualTo("object");
+        }
+        assertThat(result.getValue(0, 0)).isEqualTo(new BigDecimal("0.10"));
+        assertThat(result.getValue(1, 0)).isEqualTo(new BigDecimal("12345678901234567890.01"));
+    }
+
+    @Test
+    void primitiveVectorsGrowPastTheirInitialCapacity() throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        for (long i = 0; i < 200; i++) {
+            rows.add(new Object[]{i % 3 == 0 ? null : i});
+        }
+        ColumnarResult result = ColumnarResult.read(resultSet(List.of("id"), List.of(Types.INTEGER), rows));
+
+        assertThat(result.getRowCount()).isEqualTo(200);
+        for (int row = 0; row < 200; row++) {
+            assertThat(result.getValue(0, row)).isEqualTo(row % 3 == 0 ? null : (long) row);
+        }
+    }
+
+    @Test
+    void theSerializerWritesOneArrayPerColumn() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(orders());
+
+        assertThat(json).isEqualTo("{\"columns\":[\"id\",\"total\",\"discount\",\"status\"],"
+                + "\"types\":[\"long\",\"object\",\"double\",\"object\"],"
+                + "\"rowCount\":3,"
+                + "\"values\":[[1,null,0],[12.30,null,0.00],[0.5,null,0.0],[\"paid\",null,\"open\"]]}");
+    }
+}
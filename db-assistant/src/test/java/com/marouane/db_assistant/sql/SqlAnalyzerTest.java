@@ -0,0 +1,78 @@
+package com.marouane.db_assistant.sql;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlAnalyzerTest {
+    private final SqlAnalyzer analyzer = new SqlAnalyzer(100);
+
+    @Test
+    void plainSelectIsReadOnly() {
+        SqlAnalysis analysis = analyzer.analyze("SELECT id, name FROM customers WHERE city = 'DELETE'");
+
+        assertThat(analysis.parsed()).isTrue();
+        assertThat(analysis.readOnly()).isTrue();
+        assertThat(analysis.statementType()).isEqualTo("SELECT");
+        assertThat(analysis.tables()).containsExactly("customers");
+    }
+
+    @Test
+    void singleAggregateIsDetected() {
+        SqlAnalysis analysis = analyzer.analyze("SELECT COUNT(*) FROM orders WHERE status = 'open';");
+
+        assertThat(analysis.aggregateFunction()).isEqualTo("COUNT");
+    }
+
+    @Test
+    void rowLocksAreNotReadOnly() {
+        assertThat(analyzer.analyze("SELECT id FROM orders FOR UPDATE").readOnly()).isFalse();
+    }
+
+    @Test
+    void everyBranchOfASetOperationIsChecked() {
+        assertThat(analyzer.analyze("SELECT id FROM orders UNION SELECT id FROM invoices").readOnly()).isTrue();
+        assertThat(analyzer.analyze("SELECT id FROM orders UNION SELECT id FROM invoices FOR UPDATE").readOnly()).isFalse();
+        assertThat(analyzer.analyze("(SELECT id FROM orders FOR UPDATE) UNION (SELECT id FROM invoices)").readOnly()).isFalse();
+    }
+
+    @Test
+    void withItemsAreChecked() {
+        assertThat(analyzer.analyze("WITH open AS (SELECT id FROM orders WHERE status = 'open') SELECT * FROM open").readOnly()).isTrue();
+        assertThat(analyzer.analyze("WITH locked AS (SELECT id FROM orders FOR UPDATE) SELECT * FROM locked").readOnly()).isFalse();
+    }
+
+    @Test
+    void onlyATopLevelOrderByMakesTheRowOrderRepeatable() {
+        assertThat(analyzer.analyze("SELECT id FROM orders ORDER BY created_at, id").isOrdered()).isTrue();
+        assertThat(analyzer.analyze("SELECT id FROM orders UNION SELECT id FROM invoices ORDER BY id").isOrdered()).isTrue();
+        assertThat(analyzer.analyze("SELECT id FROM orders").isOrdered()).isFalse();
+        assertThat(analyzer.analyze("SELECT * FROM (SELECT id FROM orders ORDER BY id) o").isOrdered()).isFalse();
+    }
+
+    @Test
+    void writesAreClassifiedByTheirParseTree() {
+        assertThat(analyzer.analyze("DELETE FROM orders WHERE id = 1").statementType()).isEqualTo("DELETE");
+        assertThat(analyzer.analyze("UPDATE orders SET status = 'x' WHERE id = 1").readOnly()).isFalse();
+    }
+
+    @Test
+    void everyStatementOfAScriptIsParsed() {
+        SqlAnalysis analysis = analyzer.analyze("SELECT 1; TRUNCATE orders");
+
+        assertThat(analysis.parsed()).isTrue();
+        assertThat(analysis.statements()).hasSize(2);
+        assertThat(analysis.statementType()).isEqualTo("MULTIPLE");
+        assertThat(analysis.readOnly()).isFalse();
+    }
+
+    @Test
+    void unparsableSqlIsNeverReadOnly() {
+        SqlAnalysis analysis = analyzer.analyze("SELECT FROM FROM");
+
+        assertThat(analysis.parsed()).isFalse();
+        assertThat(analysis.statementType()).isEqualTo("SELECT");
+        assertThat(analysis.readOnly()).isFalse();
+        assertThat(analysis.statements()).isEmpty();
+    }
+}
@@ -0,0 +1,134 @@
+package com.marouane.db_assistant.sql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marouane.db_assistant.database.ConnectionManager;
+import com.marouane.db_assistant.database.DatabaseConnection;
+import com.marouane.db_assistant.governance.GovernanceChecker;
+import com.marouane.db_assistant.user.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SqlExecutionServiceTest {
+    private static final String SQL = "SELECT id FROM orders";
+
+    private final User user = User.builder().id(1).build();
+    private final DatabaseConnection connection = DatabaseConnection.builder()
+            .id(7).dbType("postgresql").host("db").port(5432).database("shop").username("app").password("secret")
+            .build();
+    private final Authentication auth = new TestingAuthenticationToken(user, null);
+
+    private final ConnectionManager connectionManager = mock(ConnectionManager.class);
+    private final QueryHistoryService queryHistoryService = mock(QueryHistoryService.class);
+    private final AtomicInteger executions = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SqlExecutionService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Statement statement = mock(Statement.class);
+        // the first execution blocks until released, so identical calls can join it
+        when(statement.execute(anyString())).thenAnswer(invocation -> {
+            executions.incrementAndGet();
+            started.countDown();
+            release.await();
+            return true;
+        });
+        when(statement.getResultSet()).thenAnswer(invocation -> resultSet());
+        Connection jdbcConnection = mock(Connection.class);
+        when(jdbcConnection.createStatement()).thenReturn(statement);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(jdbcConnection);
+
+        when(connectionManager.getActiveConnection(1)).thenReturn(connection);
+        when(connectionManager.getActiveDataSource(1)).thenReturn(dataSource);
+
+        // no rule applies: the checker mock reports no violation
+        service = new SqlExecutionService(connectionManager, queryHistoryService, new ObjectMapper(),
+                new SqlAnalyzer(100), mock(GovernanceChecker.class));
+        ReflectionTestUtils.setField(service, "defaultQueryTimeout", 30);
+    }
+
+    // one row, id = 42
+    private static ResultSet resultSet() throws Exception {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(1);
+        when(metaData.getColumnName(1)).thenReturn("id");
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getObject(1)).thenReturn(42);
+        return resultSet;
+    }
+
+    private CompletableFuture<QueryResultDto> execute(List<Thread> threads) {
+        CompletableFuture<QueryResultDto> future = new CompletableFuture<>();
+        threads.add(Thread.ofPlatform().start(() -> {
+            try {
+                future.complete(service.execute(auth, SQL));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }));
+        return future;
+    }
+
+    @Test
+    void identicalReadsRunOnceAndEachCallerGetsItsOwnResult() throws Exception {
+        CompletableFuture<QueryResultDto> leader = execute(new ArrayList<>());
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<Thread> threads = new ArrayList<>();
+        CompletableFuture<QueryResultDto> first = execute(threads);
+        CompletableFuture<QueryResultDto> second = execute(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!threads.stream().allMatch(thread -> thread.getState() == Thread.State.WAITING)) {
+            assertThat(System.nanoTime()).as("callers not parked in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        QueryResultDto leaderResult = leader.get(5, TimeUnit.SECONDS);
+        QueryResultDto firstResult = first.get(5, TimeUnit.SECONDS);
+        QueryResultDto secondResult = second.get(5, TimeUnit.SECONDS);
+        assertThat(executions).hasValue(1);
+        assertThat(firstResult.getData()).containsExactly(Map.of("id", 42));
+        assertThat(secondResult.getData()).containsExactly(Map.of("id", 42));
+
+        // a caller changing its result does not change anyone else's
+        assertThat(firstResult).isNotSameAs(leaderResult).isNotSameAs(secondResult);
+        firstResult.setWarnings(List.of("changed"));
+        firstResult.getData().getFirst().put("id", 0);
+        assertThat(leaderResult.getWarnings()).isNull();
+        assertThat(leaderResult.getData()).containsExactly(Map.of("id", 42));
+        assertThat(secondResult.getData()).containsExactly(Map.of("id", 42));
+
+        // every caller asked for the query, each one is in its history
+        verify(queryHistoryService, times(3)).logQuery(eq(user), eq(connection), eq(SQL), any(SqlAnalysis.class));
+    }
+}